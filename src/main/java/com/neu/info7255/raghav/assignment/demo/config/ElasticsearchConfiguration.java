@@ -0,0 +1,21 @@
+package com.neu.info7255.raghav.assignment.demo.config;
+
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.RestHighLevelClientBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ElasticsearchConfiguration {
+
+    /**
+     * High level client on top of the low level RestClient that Spring Boot configures from
+     * spring.elasticsearch.*, so there is one connection pool for the whole application.
+     * Boot closes the RestClient on shutdown, so this bean has no destroy method of its own.
+     */
+    @Bean(destroyMethod = "")
+    public RestHighLevelClient restHighLevelClient(RestClient restClient) {
+        return new RestHighLevelClientBuilder(restClient).build();
+    }
+}
@@ -1,54 +1,170 @@
-package com.neu.info7255.raghav.assignment.demo.config;
-
-/**
- * @author Raghav Khanna
- */
-
-import com.neu.info7255.raghav.assignment.demo.services.IndexingListener;
-import org.springframework.amqp.core.Binding;
-import org.springframework.amqp.core.BindingBuilder;
-import org.springframework.amqp.core.Queue;
-import org.springframework.amqp.core.TopicExchange;
-import org.springframework.amqp.rabbit.connection.ConnectionFactory;
-import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
-import org.springframework.amqp.rabbit.listener.adapter.MessageListenerAdapter;
-import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.Configuration;
-
-@Configuration
-public class RabbitMQConfiguration {
-
-    public static final String topicExchangeName = "topic-exchange";
-
-    public static final String queueName = "indexing-queue";
-
-    @Bean
-    Queue queue() {
-        return new Queue(queueName, false);
-    }
-
-    @Bean
-    TopicExchange exchange() {
-        return new TopicExchange(topicExchangeName);
-    }
-
-    @Bean
-    Binding binding(Queue queue, TopicExchange exchange) {
-        return BindingBuilder.bind(queue).to(exchange).with(queueName);
-    }
-
-    @Bean
-    MessageListenerAdapter listenerAdapter(IndexingListener receiver) {
-        return new MessageListenerAdapter(receiver, "receiveMessage");
-    }
-
-    @Bean
-    SimpleMessageListenerContainer container(ConnectionFactory connectionFactory,
-                                             MessageListenerAdapter listenerAdapter) {
-        SimpleMessageListenerContainer container = new SimpleMessageListenerContainer();
-        container.setConnectionFactory(connectionFactory);
-        container.setQueueNames(queueName);
-        container.setMessageListener(listenerAdapter);
-        return container;
-    }
-}
+package com.neu.info7255.raghav.assignment.demo.config;
+
+/**
+ * @author Raghav Khanna
+ */
+
+import com.neu.info7255.raghav.assignment.demo.services.IndexingListener;
+import com.google.common.hash.Hashing;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.core.TopicExchange;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareBatchMessageListener;
+import org.springframework.amqp.rabbit.listener.adapter.MessageListenerAdapter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Configuration
+public class RabbitMQConfiguration {
+
+    public static final String topicExchangeName = "topic-exchange";
+
+    public static final String queueName = "indexing-queue";
+
+    /**
+     * Queue of one indexing partition; it is also the routing key events of that partition are published with.
+     */
+    public static String partitionQueue(int partition) {
+        return queueName + "." + partition;
+    }
+
+    /**
+     * The partition a plan's events go to. Consistent hashing keeps most plans on their partition when the
+     * number of partitions changes.
+     */
+    public static int partitionOf(String planId, int partitions) {
+        return Hashing.consistentHash(Hashing.murmur3_32().hashString(planId, StandardCharsets.UTF_8), partitions);
+    }
+
+    /**
+     * The queue events went to before they were partitioned. It is still consumed so nothing published
+     * to it by an older instance is left behind. It stays non-durable, since redeclaring an existing queue
+     * with another durability fails.
+     */
+    @Bean
+    Queue queue() {
+        return new Queue(queueName, false);
+    }
+
+    @Bean
+    TopicExchange exchange() {
+        return new TopicExchange(topicExchangeName);
+    }
+
+    @Bean
+    Binding binding(Queue queue, TopicExchange exchange) {
+        return BindingBuilder.bind(queue).to(exchange).with(queueName);
+    }
+
+    @Bean
+    Declarables indexingPartitions(TopicExchange exchange, @Value("${plan.indexing.partitions:4}") int partitions) {
+        List<Declarable> declarables = new ArrayList<>();
+        for (int partition = 0; partition < partitions; partition++) {
+            // Durable, with persistent messages, so a broker restart keeps pending index updates
+            Queue partitionQueue = new Queue(partitionQueue(partition), true);
+            declarables.add(partitionQueue);
+            declarables.add(BindingBuilder.bind(partitionQueue).to(exchange).with(partitionQueue(partition)));
+        }
+        return new Declarables(declarables);
+    }
+
+    /**
+     * One container per partition with a single consumer, so the events of a plan are indexed in the order
+     * they were published while different partitions are indexed in parallel. Each consumer receives its
+     * messages in batches of up to plan.indexing.consumer.batch-size. Messages are acked by IndexingListener once
+     * their documents have been sent to Elasticsearch, so at most plan.indexing.consumer.prefetch of them wait
+     * for their bulk requests at a time.
+     */
+    @Bean
+    RabbitListenerConfigurer indexingPartitionListeners(ConnectionFactory connectionFactory,
+                                                        IndexingListener receiver,
+                                                        @Value("${plan.indexing.partitions:4}") int partitions,
+                                                        @Value("${plan.indexing.consumer.prefetch:250}") int prefetch,
+                                                        @Value("${plan.indexing.consumer.batch-size:100}") int batchSize,
+                                                        @Value("${plan.indexing.consumer.receive-timeout:200ms}") Duration receiveTimeout) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setConcurrentConsumers(1);
+        factory.setMaxConcurrentConsumers(1);
+        factory.setPrefetchCount(prefetch);
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(receiveTimeout.toMillis());
+
+        return registrar -> {
+            for (int partition = 0; partition < partitions; partition++) {
+                SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+                endpoint.setId(partitionQueue(partition));
+                endpoint.setQueueNames(partitionQueue(partition));
+                endpoint.setMessageListener((ChannelAwareBatchMessageListener) receiver::receiveMessages);
+                registrar.registerEndpoint(endpoint, factory);
+            }
+        };
+    }
+
+    /**
+     * Messages waiting in every indexing queue, read from the broker when the gauge is sampled.
+     */
+    @Bean
+    MeterBinder indexingQueueMetrics(AmqpAdmin amqpAdmin, @Value("${plan.indexing.partitions:4}") int partitions) {
+        return registry -> {
+            List<String> queues = new ArrayList<>();
+            queues.add(queueName);
+            for (int partition = 0; partition < partitions; partition++) {
+                queues.add(partitionQueue(partition));
+            }
+            for (String name : queues) {
+                Gauge.builder("plan.indexing.queue.depth", amqpAdmin, admin -> queueDepth(admin, name))
+                        .tag("queue", name)
+                        .description("Messages ready in the queue")
+                        .register(registry);
+            }
+        };
+    }
+
+    private static double queueDepth(AmqpAdmin amqpAdmin, String queue) {
+        try {
+            QueueInformation information = amqpAdmin.getQueueInfo(queue);
+            return information == null ? Double.NaN : information.getMessageCount();
+        } catch (AmqpException e) {
+            return Double.NaN;
+        }
+    }
+
+    @Bean
+    MessageListenerAdapter listenerAdapter(IndexingListener receiver) {
+        return new MessageListenerAdapter(receiver, "receiveMessage");
+    }
+
+    @Bean
+    SimpleMessageListenerContainer container(ConnectionFactory connectionFactory,
+                                             MessageListenerAdapter listenerAdapter) {
+        SimpleMessageListenerContainer container = new SimpleMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.setQueueNames(queueName);
+        container.setMessageListener(listenerAdapter);
+        return container;
+    }
+}
@@ -1,12 +1,18 @@
 package com.neu.info7255.raghav.assignment.demo.config;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
-import redis.clients.jedis.Jedis;
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.time.Duration;
 
 @Configuration
 public class RedisConfiguration {
@@ -17,9 +23,62 @@ public class RedisConfiguration {
         return new JedisConnectionFactory();
     }
 
+    /**
+     * Connection pool shared by all request threads. Callers borrow a connection per
+     * operation and give it back with try-with-resources; sizing comes from the
+     * spring.data.redis.jedis.pool.* properties.
+     */
+    @Bean(destroyMethod = "close")
+    public JedisPool jedisPool(RedisProperties redisProperties) {
+        RedisProperties.Pool poolProperties = redisProperties.getJedis().getPool();
+
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(poolProperties.getMaxActive());
+        poolConfig.setMaxIdle(poolProperties.getMaxIdle());
+        poolConfig.setMinIdle(poolProperties.getMinIdle());
+        poolConfig.setMaxWait(poolProperties.getMaxWait());
+        poolConfig.setBlockWhenExhausted(true);
+        poolConfig.setJmxEnabled(false);
+        if (poolProperties.getTimeBetweenEvictionRuns() != null) {
+            poolConfig.setTimeBetweenEvictionRuns(poolProperties.getTimeBetweenEvictionRuns());
+        }
+
+        DefaultJedisClientConfig.Builder clientConfig = DefaultJedisClientConfig.builder()
+                .user(redisProperties.getUsername())
+                .password(redisProperties.getPassword())
+                .database(redisProperties.getDatabase())
+                .clientName(redisProperties.getClientName())
+                .ssl(redisProperties.getSsl().isEnabled());
+        if (redisProperties.getTimeout() != null) {
+            clientConfig.socketTimeoutMillis(toMillis(redisProperties.getTimeout()));
+        }
+        if (redisProperties.getConnectTimeout() != null) {
+            clientConfig.connectionTimeoutMillis(toMillis(redisProperties.getConnectTimeout()));
+        }
+
+        HostAndPort hostAndPort = new HostAndPort(redisProperties.getHost(), redisProperties.getPort());
+        return new JedisPool(poolConfig, hostAndPort, clientConfig.build());
+    }
+
     @Bean
-    public Jedis getJedis() {
-        return new JedisPool().getResource();
+    public MeterBinder jedisPoolMetrics(JedisPool jedisPool) {
+        return registry -> {
+            Gauge.builder("redis.pool.connections", jedisPool, JedisPool::getNumActive)
+                    .tag("state", "active")
+                    .description("Connections currently borrowed from the pool")
+                    .register(registry);
+            Gauge.builder("redis.pool.connections", jedisPool, JedisPool::getNumIdle)
+                    .tag("state", "idle")
+                    .description("Idle connections available in the pool")
+                    .register(registry);
+            Gauge.builder("redis.pool.connections", jedisPool, JedisPool::getNumWaiters)
+                    .tag("state", "waiting")
+                    .description("Threads blocked waiting for a connection")
+                    .register(registry);
+            Gauge.builder("redis.pool.borrow.wait.max", jedisPool, JedisPool::getMaxBorrowWaitTimeMillis)
+                    .baseUnit("milliseconds")
+                    .register(registry);
+        };
     }
 
     @Bean
@@ -28,4 +87,8 @@ public class RedisConfiguration {
         redisTemplate.setConnectionFactory(jedisConnectionFactory());
         return redisTemplate;
     }
+
+    private static int toMillis(Duration duration) {
+        return (int) duration.toMillis();
+    }
 }
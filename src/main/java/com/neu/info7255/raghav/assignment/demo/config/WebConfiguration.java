@@ -0,0 +1,21 @@
+package com.neu.info7255.raghav.assignment.demo.config;
+
+import com.neu.info7255.raghav.assignment.demo.controller.ConditionalRequestInterceptor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class WebConfiguration implements WebMvcConfigurer {
+
+    private final ConditionalRequestInterceptor conditionalRequestInterceptor;
+
+    public WebConfiguration(ConditionalRequestInterceptor conditionalRequestInterceptor) {
+        this.conditionalRequestInterceptor = conditionalRequestInterceptor;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(conditionalRequestInterceptor).addPathPatterns("/plan/*", "/plan/*/*/*");
+    }
+}
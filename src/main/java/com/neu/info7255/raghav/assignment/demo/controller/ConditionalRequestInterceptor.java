@@ -0,0 +1,131 @@
+package com.neu.info7255.raghav.assignment.demo.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neu.info7255.raghav.assignment.demo.model.ResponseObject;
+import com.neu.info7255.raghav.assignment.demo.services.PlanService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Conditional-request stage for /plan/{id} and its sub-resources /plan/{id}/{field}/{objectId}.
+ * It resolves the stored eTag of the addressed node with a lightweight lookup and answers
+ * 404/400/304/412 before the handler reads, parses or validates anything. The same rules apply to every verb:
+ * <ul>
+ *     <li>the plan must exist (404 otherwise);</li>
+ *     <li>PUT, PATCH and DELETE must carry If-Match or If-None-Match (400 otherwise);</li>
+ *     <li>a failed If-Match gives 412;</li>
+ *     <li>a matching If-None-Match gives 304 for GET/HEAD and 412 for the other verbs.</li>
+ * </ul>
+ * The eTag that was checked is handed to the handler as the {@link #CURRENT_ETAG} request attribute,
+ * and for sub-resources the resolved node key as {@link #NODE_KEY}. PATCH, PUT and DELETE check it again
+ * when they write, since the plan can change between this check and the write.
+ */
+@Component
+public class ConditionalRequestInterceptor implements HandlerInterceptor {
+
+    public static final String CURRENT_ETAG = "plan.currentETag";
+    public static final String NODE_KEY = "plan.nodeKey";
+
+    private final PlanService planService;
+    private final ObjectMapper objectMapper;
+
+    public ConditionalRequestInterceptor(PlanService planService, ObjectMapper objectMapper) {
+        this.planService = planService;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        @SuppressWarnings("unchecked")
+        Map<String, String> pathVariables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        if (pathVariables == null || !pathVariables.containsKey("id")) {
+            return true;
+        }
+
+        boolean safeMethod = "GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod());
+
+        String planKey = "plan:" + pathVariables.get("id");
+        String eTag;
+        if (pathVariables.containsKey("objectId")) {
+            String nodeKey = planService.findChildKey(planKey, pathVariables.get("field"), pathVariables.get("objectId"));
+            eTag = nodeKey == null ? null : planService.readEtag(nodeKey);
+            if (eTag == null) {
+                writeError(response, "Object not found in plan", HttpStatus.NOT_FOUND);
+                return false;
+            }
+            request.setAttribute(NODE_KEY, nodeKey);
+        } else {
+            // Reads may use the near cache; a write must be checked against what Redis holds now
+            eTag = safeMethod ? planService.accessEtag(planKey) : planService.readEtag(planKey);
+            if (eTag == null) {
+                writeError(response, safeMethod ? "Provided Wrong Plan Id!" : "Plan Id not found", HttpStatus.NOT_FOUND);
+                return false;
+            }
+        }
+        String ifMatchHeader = request.getHeader(HttpHeaders.IF_MATCH);
+        String ifNoneMatchHeader = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+
+        if (!safeMethod && isBlank(ifMatchHeader) && isBlank(ifNoneMatchHeader)) {
+            writeError(response, "ETag must be provided in either If-Match or If-None-Match headers", HttpStatus.BAD_REQUEST);
+            return false;
+        }
+
+        if (!isBlank(ifMatchHeader) && !matches(ifMatchHeader, eTag)) {
+            writeError(response, "Pre Condition Failed", HttpStatus.PRECONDITION_FAILED);
+            return false;
+        }
+
+        if (!isBlank(ifNoneMatchHeader) && matches(ifNoneMatchHeader, eTag)) {
+            if (safeMethod) {
+                response.setStatus(HttpStatus.NOT_MODIFIED.value());
+                response.setHeader(HttpHeaders.ETAG, eTag);
+            } else {
+                writeError(response, "Pre Condition Failed", HttpStatus.PRECONDITION_FAILED);
+            }
+            return false;
+        }
+
+        request.setAttribute(CURRENT_ETAG, eTag);
+        return true;
+    }
+
+    /**
+     * Checks an If-Match / If-None-Match header value, which may be "*" or a list of entity tags.
+     * Weak validators are compared by their opaque part.
+     */
+    static boolean matches(String header, String eTag) {
+        for (String candidate : header.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    private void writeError(HttpServletResponse response, String message, HttpStatus status) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), new ResponseObject(message, status.value(), new ArrayList<>()));
+    }
+}
@@ -1,24 +1,34 @@
 package com.neu.info7255.raghav.assignment.demo.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.neu.info7255.raghav.assignment.demo.config.RabbitMQConfiguration;
+import com.neu.info7255.raghav.assignment.demo.model.BulkResult;
+import com.neu.info7255.raghav.assignment.demo.model.PlanDeletion;
+import com.neu.info7255.raghav.assignment.demo.model.PlanDocument;
+import com.neu.info7255.raghav.assignment.demo.model.PlanPage;
+import com.neu.info7255.raghav.assignment.demo.model.PlanWrite;
 import com.neu.info7255.raghav.assignment.demo.model.ResponseObject;
+import com.neu.info7255.raghav.assignment.demo.model.SchemaViolation;
 import com.neu.info7255.raghav.assignment.demo.services.JsonSchemaValidatorService;
+import com.neu.info7255.raghav.assignment.demo.services.PlanBulkLoader;
+import com.neu.info7255.raghav.assignment.demo.services.PlanEventPublisher;
 import com.neu.info7255.raghav.assignment.demo.services.PlanService;
 import lombok.RequiredArgsConstructor;
 import org.json.JSONObject;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -29,25 +39,40 @@ import java.util.Map;
 @RestController
 public class PlanController {
 
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final String DELETED_KEYS_HEADER = "X-Deleted-Keys";
+
     private final PlanService planService;
     private final JsonSchemaValidatorService jsonSchemaValidatorService;
 
-    private final RabbitTemplate template;
+    private final PlanEventPublisher planEventPublisher;
+
+    private final PlanBulkLoader planBulkLoader;
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${plan.list.default-limit:100}")
+    private int defaultPageSize;
+
+    @Value("${plan.list.max-limit:1000}")
+    private int maxPageSize;
 
     @PostMapping(value = "/plan")
     public ResponseEntity<ResponseObject> createPlan(@RequestBody String request, @AuthenticationPrincipal Jwt jwt) {
         System.out.println("createPlan method hit");
 
         try {
-            JSONObject jsonObjectPlan = new JSONObject(request);
+            // Parsed once; validation, the eTag, the Redis mapper and the event all read this document
+            PlanDocument plan = PlanDocument.parse(objectMapper, request);
 
             // Validate JSON schema
-            if (!jsonSchemaValidatorService.validateJSONSchema(jsonObjectPlan)) {
-                System.out.println("Json Error");
-                return createErrorResponse("Please check Input Type", HttpStatus.BAD_REQUEST);
+            List<SchemaViolation> violations = jsonSchemaValidatorService.validate(plan);
+            if (!violations.isEmpty()) {
+                System.out.println("Json Error: " + violations.size() + " schema violations");
+                return createErrorResponse("Please check Input Type", HttpStatus.BAD_REQUEST, violations);
             }
 
-            String objectKey = jsonObjectPlan.get("objectType") + ":" + jsonObjectPlan.get("objectId");
+            String objectKey = plan.getObjectKey();
 
             // Check if plan already exists
             if (planService.ifKeyExists(objectKey)) {
@@ -55,14 +80,14 @@ public class PlanController {
             }
 
             // Save the new plan and log the action
-            String eTagGeneratedAfterSave = planService.createPlan(jsonObjectPlan, objectKey);
+            PlanWrite write = planService.createPlan(plan, objectKey);
             logAction(request, "SAVE");
 
-            publishPlanCreatedEvent(jsonObjectPlan, objectKey);
+            publishPlanCreatedEvent(plan.getObjectId(), write.revision());
 
-            ResponseObject responseObject = new ResponseObject("Plan Added!", HttpStatus.CREATED.value(), jsonObjectPlan.get("objectId"));
+            ResponseObject responseObject = new ResponseObject("Plan Added!", HttpStatus.CREATED.value(), plan.getObjectId());
             return ResponseEntity.created(new URI("/plan/" + objectKey))
-                    .eTag(eTagGeneratedAfterSave)
+                    .eTag(write.eTag())
                     .body(responseObject);
 
         } catch (Exception e) {
@@ -70,21 +95,26 @@ public class PlanController {
         }
     }
 
-    private void publishPlanCreatedEvent(JSONObject planData, String objectKey) {
-        // Convert plan data to a suitable format for messaging
-        Map<String, Object> messageContent = new HashMap<>();
-
-        messageContent.put("operation", "SAVE");
-        messageContent.put("body", planData.toString());
-        System.out.println("Sending message: " + messageContent);
+    /**
+     * Creates plans from an NDJSON body, one plan per line, and reports how many were created and which lines failed.
+     */
+    @PostMapping(value = "/plan/_bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<ResponseObject> createPlans(InputStream requestBody, @AuthenticationPrincipal Jwt jwt) throws IOException {
+        BulkResult result = planBulkLoader.load(requestBody);
+        return ResponseEntity.ok(new ResponseObject("Bulk load finished", HttpStatus.OK.value(), result));
+    }
 
-        // Publish message to the queue
-        template.convertAndSend(RabbitMQConfiguration.topicExchangeName, RabbitMQConfiguration.queueName, messageContent);
+    private void publishPlanCreatedEvent(String planId, long revision) {
+        planEventPublisher.publish("SAVE", planId, revision);
         System.out.println("Published plan creation event to RabbitMQ");
     }
 
     private ResponseEntity<ResponseObject> createErrorResponse(String message, HttpStatus status) {
-        ResponseObject responseObject = new ResponseObject(message, status.value(), new ArrayList<>());
+        return createErrorResponse(message, status, new ArrayList<>());
+    }
+
+    private ResponseEntity<ResponseObject> createErrorResponse(String message, HttpStatus status, Object data) {
+        ResponseObject responseObject = new ResponseObject(message, status.value(), data);
         return new ResponseEntity<>(responseObject, status);
     }
 
@@ -96,21 +126,72 @@ public class PlanController {
     }
 
     @GetMapping(value = "/plan")
-    public ResponseEntity<ResponseObject> getAllPlans(@AuthenticationPrincipal Jwt jwt) {
-        List<Map<String, Object>> plans = planService.getAllPlans();
+    public ResponseEntity<ResponseObject> getAllPlans(@RequestParam(required = false) String cursor,
+                                                      @RequestParam(required = false) Integer limit,
+                                                      @AuthenticationPrincipal Jwt jwt) {
+        int pageSize = resolvePageSize(limit);
+        PlanPage page = planService.getPlanPage(cursor, pageSize);
 
-        if (plans.isEmpty()) {
+        if (page.getPlans().isEmpty() && (cursor == null || cursor.isEmpty())) {
             return createErrorResponse("No Plans Found", HttpStatus.NOT_FOUND);
         }
 
-        ResponseObject responseObject = new ResponseObject("Success", HttpStatus.OK.value(), plans);
-        return ResponseEntity.ok(responseObject);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        ResponseObject responseObject = new ResponseObject("Success", HttpStatus.OK.value(), page.getPlans());
+        return response.body(responseObject);
+    }
+
+    /**
+     * Streams every plan, page by page, writing each plan to the response as soon as its page is read.
+     * Only one page is held in memory at a time.
+     */
+    @GetMapping(value = "/plan", params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamAllPlans(@RequestParam(required = false) Integer limit,
+                                                                @AuthenticationPrincipal Jwt jwt) {
+        int pageSize = resolvePageSize(limit);
+
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = objectMapper.createGenerator(outputStream)) {
+                generator.writeStartObject();
+                generator.writeStringField("message", "Success");
+                generator.writeNumberField("statusCode", HttpStatus.OK.value());
+                generator.writeArrayFieldStart("data");
+
+                String nextCursor = null;
+                do {
+                    PlanPage page = planService.getPlanPage(nextCursor, pageSize);
+                    for (Map<String, Object> plan : page.getPlans()) {
+                        generator.writeObject(plan);
+                    }
+                    generator.flush();
+                    nextCursor = page.getNextCursor();
+                } while (nextCursor != null);
+
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+        };
+
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    private int resolvePageSize(Integer limit) {
+        if (limit == null || limit <= 0) {
+            return defaultPageSize;
+        }
+        return Math.min(limit, maxPageSize);
     }
 
 
+    /**
+     * Preconditions (If-Match / If-None-Match) are already resolved by {@link ConditionalRequestInterceptor}.
+     */
     @GetMapping(value = "/plan/{id}")
     public ResponseEntity<String> getPlan(@PathVariable String id,
-                                          @RequestHeader HttpHeaders requestHeaders) {
+                                          @RequestAttribute(ConditionalRequestInterceptor.CURRENT_ETAG) String etagFromCache) {
 
         String key = "plan:" + id; // Constructing the key using the "plan" prefix and the provided id
         Map<String, Object> plan = planService.getPlanById(key);
@@ -121,18 +202,6 @@ public class PlanController {
                     .body(new JSONObject(new ResponseObject("Provided Wrong Plan Id!", HttpStatus.NOT_FOUND.value(), new ArrayList<>())).toString());
         }
 
-        String etagFromCache = planService.accessEtag(key);
-        String ifNoneMatchHeader = requestHeaders.getFirst("If-None-Match");
-        String ifMatchHeader = requestHeaders.getFirst("If-Match");
-
-        if (ifMatchHeader != null && !ifMatchHeader.equals(etagFromCache)) {
-            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
-        }
-
-        if (ifNoneMatchHeader != null && ifNoneMatchHeader.equals(etagFromCache)) {
-            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
-        }
-
         HttpHeaders responseHeaders = new HttpHeaders();
         responseHeaders.add("ETag", etagFromCache);
         responseHeaders.add("Accept", "application/json");
@@ -141,6 +210,25 @@ public class PlanController {
         return ResponseEntity.ok().headers(responseHeaders).body(new JSONObject(plan).toString());
     }
 
+    /**
+     * Reads one object nested in a plan, e.g. /plan/{id}/linkedPlanServices/{objectId}, with its own eTag.
+     * Preconditions are resolved against that object's eTag by {@link ConditionalRequestInterceptor}.
+     */
+    @GetMapping(value = "/plan/{id}/{field}/{objectId}")
+    public ResponseEntity<String> getPlanObject(@PathVariable String id,
+                                                @PathVariable String field,
+                                                @PathVariable String objectId,
+                                                @RequestAttribute(ConditionalRequestInterceptor.NODE_KEY) String nodeKey,
+                                                @RequestAttribute(ConditionalRequestInterceptor.CURRENT_ETAG) String eTag) {
+        Map<String, Object> node = planService.getNode(nodeKey);
+
+        HttpHeaders responseHeaders = new HttpHeaders();
+        responseHeaders.add("ETag", eTag);
+        responseHeaders.add("Content-Type", "application/json");
+
+        return ResponseEntity.ok().headers(responseHeaders).body(new JSONObject(node).toString());
+    }
+
 //    @DeleteMapping(value = "/plan/{id}")
 //    public ResponseEntity<ResponseObject> deletePlan(@PathVariable String id,
 //                                                     @RequestHeader HttpHeaders requestHeaders) {
@@ -170,70 +258,36 @@ public class PlanController {
 //    }
 
     @DeleteMapping(value = "/plan/{id}")
-    public ResponseEntity<ResponseObject> deletePlan(@PathVariable String id, @RequestHeader HttpHeaders requestHeaders) {
+    public ResponseEntity<ResponseObject> deletePlan(
+            @PathVariable String id,
+            @RequestAttribute(ConditionalRequestInterceptor.CURRENT_ETAG) String currentETag) {
         String key = "plan:" + id;
 
-        // Check if the plan exists
-        if (!planService.ifKeyExists(key)) {
-            return createErrorResponse("Plan Id not found", HttpStatus.NOT_FOUND);
-        }
-
-//        // ETag handling for concurrency control
-//        String etagFromCache = planService.accessEtag(key);
-//        String ifMatchHeader = requestHeaders.getFirst("If-Match");
-//        if (ifMatchHeader != null && !ifMatchHeader.equals(etagFromCache)) {
-//            return createErrorResponse("Pre Condition Failed", HttpStatus.PRECONDITION_FAILED);
-//        }
-//        String ifNoneMatchHeader = requestHeaders.getFirst("If-None-Match");
-//        if (ifNoneMatchHeader != null && ifNoneMatchHeader.equals(etagFromCache)) {
-//            return createErrorResponse("", HttpStatus.NOT_MODIFIED);
-//        }
-
-        String etagFromCache = planService.accessEtag(key);
-
-        String ifMatchHeader = requestHeaders.getFirst("If-Match");
-        String ifNoneMatchHeader = requestHeaders.getFirst("If-None-Match");
-
-// Check that one of If-Match or If-None-Match headers must be present and not empty
-        if ((ifMatchHeader == null || ifMatchHeader.isEmpty()) && (ifNoneMatchHeader == null || ifNoneMatchHeader.isEmpty())) {
-            return createErrorResponse("ETag must be provided in either If-Match or If-None-Match headers", HttpStatus.BAD_REQUEST);
-        }
-
-
-
-        if (ifNoneMatchHeader != null && ifNoneMatchHeader.equals(etagFromCache)) {
-            return createErrorResponse("Etag has not changed", HttpStatus.NOT_MODIFIED);
-        }
-
-        if (ifMatchHeader != null && !ifMatchHeader.equals(etagFromCache)) {
-            return createErrorResponse("Pre Condition Failed", HttpStatus.PRECONDITION_FAILED);
-        }
-
+        // Existence and If-Match / If-None-Match are checked by ConditionalRequestInterceptor
         try {
-            // Fetch and log the plan before deletion
-            Map<String, Object> plan = planService.getPlanById(key);
-            logAction(new JSONObject(plan).toString(), "DELETE");
-
-            // Perform the deletion
-            planService.deletePlan(key);
+            // Perform the deletion; the event is a claim check, so the plan itself is not read
+            PlanDeletion deletion = planService.deletePlan(key, currentETag);
+            if (deletion == null) {
+                return createErrorResponse("Pre Condition Failed", HttpStatus.PRECONDITION_FAILED);
+            }
+            logAction(key + " at revision " + deletion.revision(), "DELETE");
 
             // Publish a message to update Elasticsearch index
-            publishPlanDeletedEvent(new JSONObject(plan), key);
+            publishPlanDeletedEvent(id, deletion.revision());
 
-            // Return successful response
-            return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+            // Return successful response, reporting how many Redis keys were removed
+            return ResponseEntity.status(HttpStatus.NO_CONTENT)
+                    .header(DELETED_KEYS_HEADER, String.valueOf(deletion.removedKeys()))
+                    .build();
         } catch (Exception e) {
             // Handle exceptions and return appropriate error response
             return createErrorResponse("Error during deletion: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
-    private void publishPlanDeletedEvent(JSONObject planData, String objectKey) {
+    private void publishPlanDeletedEvent(String planId, long revision) {
         // Logic to publish a delete event to the message queue
-        Map<String, String> messageContent = new HashMap<>();
-        messageContent.put("operation", "DELETE");
-        messageContent.put("body", planData.toString());
-        template.convertAndSend(RabbitMQConfiguration.topicExchangeName, RabbitMQConfiguration.queueName, messageContent);
+        planEventPublisher.publish("DELETE", planId, revision);
     }
 
 
@@ -241,85 +295,40 @@ public class PlanController {
     public ResponseEntity<ResponseObject> updatePlan(
             @PathVariable String id,
             @RequestBody String requestBody,
-            @RequestHeader HttpHeaders requestHeaders) {
+            @RequestAttribute(ConditionalRequestInterceptor.CURRENT_ETAG) String currentETag) {
 
         String key = "plan:" + id;
 
-        if (!planService.ifKeyExists(key)) {
-            return createErrorResponse("Plan Id not found", HttpStatus.NOT_FOUND);
-        }
-
-//        String etagFromCache = planService.accessEtag(key);
-//        String ifMatchHeader = requestHeaders.getFirst("If-Match");
-//
-//        if (ifMatchHeader != null && !ifMatchHeader.equals(etagFromCache)) {
-//            return createErrorResponse("Pre Condition Failed", HttpStatus.PRECONDITION_FAILED);
-//        }
-//
-//        String ifNoneMatchHeader = requestHeaders.getFirst("If-None-Match");
-//        if (ifNoneMatchHeader != null && ifNoneMatchHeader.equals(etagFromCache)) {
-//            return createErrorResponse("", HttpStatus.NOT_MODIFIED);
-//        }
-
-        String etagFromCache = planService.accessEtag(key);
-//String ifMatchHeader = requestHeaders.getFirst("If-Match");
-
-        String ifMatchHeader = requestHeaders.getFirst("If-Match");
-        String ifNoneMatchHeader = requestHeaders.getFirst("If-None-Match");
-
-// Check that one of If-Match or If-None-Match headers must be present and not empty
-        if ((ifMatchHeader == null || ifMatchHeader.isEmpty()) && (ifNoneMatchHeader == null || ifNoneMatchHeader.isEmpty())) {
-            return createErrorResponse("ETag must be provided in either If-Match or If-None-Match headers", HttpStatus.BAD_REQUEST);
-        }
-
-        if (ifMatchHeader != null && !ifMatchHeader.equals(etagFromCache)) {
-            return createErrorResponse("Etag mismatch: Provided ETag does not match", HttpStatus.PRECONDITION_FAILED);
-        }
-
-        if (ifNoneMatchHeader != null && ifNoneMatchHeader.equals(etagFromCache)) {
-            return createErrorResponse("Etag has not changed", HttpStatus.NOT_MODIFIED);
-        }
+        // Existence and If-Match / If-None-Match are checked by ConditionalRequestInterceptor
         try {
-            ObjectMapper objectMapper = new ObjectMapper();
             JsonNode requestBodyJson = objectMapper.readTree(requestBody);
-            Map<String, Object> existingPlanMap = planService.getPlanById(key);
-
-            //...
             System.out.println("Request body: " + requestBody);
 
-            System.out.println("Existing plan: " + existingPlanMap);
-
-
-            // Extract existing linkedPlanServices, or initialize to an empty list if null
-            List<Map<String, Object>> existingLinkedPlanServices = (List<Map<String, Object>>) existingPlanMap.getOrDefault("linkedPlanServices", new ArrayList<>());
-
             // Get the new linkedPlanServices array from the request body JSON
-            ArrayNode newLinkedPlanServices = (ArrayNode) requestBodyJson.get("linkedPlanServices");
-
-            // Iterate through the new linkedPlanServices array, converting each object to a map and adding it to the existingLinkedPlanServices list
-            for (JsonNode newLinkedPlanService : newLinkedPlanServices) {
-                Map<String, Object> newLinkedPlanServiceMap = objectMapper.convertValue(newLinkedPlanService, new TypeReference<Map<String, Object>>() {});
-                existingLinkedPlanServices.add(newLinkedPlanServiceMap);
+            JsonNode newLinkedPlanServices = requestBodyJson.get("linkedPlanServices");
+            if (newLinkedPlanServices == null || !newLinkedPlanServices.isArray()) {
+                return createErrorResponse("linkedPlanServices must be provided as an array", HttpStatus.BAD_REQUEST);
             }
 
-            // Update the map with the merged linkedPlanServices list
-            existingPlanMap.put("linkedPlanServices", existingLinkedPlanServices);
-
-            // Convert the updated map back to a JSONObject
-            JSONObject updatedPlanJson = new JSONObject(objectMapper.writeValueAsString(existingPlanMap));
-
-            Map<String, String> messageContent = new HashMap<>();
-            messageContent.put("operation", "UPDATE");
-            messageContent.put("body", updatedPlanJson.toString());
+            // Only the incoming objects are checked, against the linkedPlanServices sub-schema
+            List<SchemaViolation> violations = jsonSchemaValidatorService.validateFragments(
+                    "linkedPlanServices", newLinkedPlanServices, requestBody.length());
+            if (!violations.isEmpty()) {
+                return createErrorResponse("Invalid JSON schema", HttpStatus.BAD_REQUEST, violations);
+            }
 
-            template.convertAndSend(RabbitMQConfiguration.topicExchangeName, RabbitMQConfiguration.queueName, messageContent);
+            // Only the new objects are written and hashed; the plan eTag is rebuilt from the stored child eTags
+            PlanWrite write = planService.appendToPlan(key, "linkedPlanServices", newLinkedPlanServices, currentETag);
+            if (write == null) {
+                return createErrorResponse("Pre Condition Failed", HttpStatus.PRECONDITION_FAILED);
+            }
 
-            // Use createPlan to save the updated plan
-            String newEtag = planService.createPlan(updatedPlanJson, key);
-            logAction(objectMapper.writeValueAsString(existingPlanMap), "PATCH");
+            // The indexer reads the updated plan itself, so it is not loaded again here
+            planEventPublisher.publish("UPDATE", id, write.revision());
+            logAction(requestBody, "PATCH");
 
-            ResponseObject responseObject = new ResponseObject("Plan updated Successfully", HttpStatus.OK.value(), existingPlanMap.get("objectId"));
-            return ResponseEntity.ok().eTag(newEtag).body(responseObject);
+            ResponseObject responseObject = new ResponseObject("Plan updated Successfully", HttpStatus.OK.value(), id);
+            return ResponseEntity.ok().eTag(write.eTag()).body(responseObject);
 
         } catch (JsonProcessingException e) {
             return createErrorResponse("Invalid JSON input: " + e.getMessage(), HttpStatus.BAD_REQUEST);
@@ -332,43 +341,29 @@ public class PlanController {
     public ResponseEntity<ResponseObject> replacePlan(
             @PathVariable String id,
             @RequestBody String requestBody,
-            @RequestHeader HttpHeaders requestHeaders) {
+            @RequestAttribute(ConditionalRequestInterceptor.CURRENT_ETAG) String currentETag) {
 
         String key = "plan:" + id;
 
-        if (!planService.ifKeyExists(key)) {
-            return createErrorResponse("Plan Id not found", HttpStatus.NOT_FOUND);
-        }
-
-        String etagFromCache = planService.accessEtag(key);
-        String ifMatchHeader = requestHeaders.getFirst("If-Match");
-
-        if (ifMatchHeader != null && !ifMatchHeader.equals(etagFromCache)) {
-            return createErrorResponse("Pre Condition Failed", HttpStatus.PRECONDITION_FAILED);
-        }
-
+        // Existence and If-Match / If-None-Match are checked by ConditionalRequestInterceptor
         try {
-            ObjectMapper objectMapper = new ObjectMapper();
-            JsonNode requestBodyJson = objectMapper.readTree(requestBody);
-
-            // Convert JsonNode to JSONObject
-            JSONObject requestBodyJSONObject = new JSONObject(objectMapper.writeValueAsString(requestBodyJson));
-
+            PlanDocument newPlan = PlanDocument.parse(objectMapper, requestBody);
 
-            // Now pass the JSONObject to the validateJSONSchema method
-            if (!jsonSchemaValidatorService.validateJSONSchema(requestBodyJSONObject)) {
-                return createErrorResponse("Invalid JSON schema", HttpStatus.BAD_REQUEST);
+            List<SchemaViolation> violations = jsonSchemaValidatorService.validate(newPlan);
+            if (!violations.isEmpty()) {
+                return createErrorResponse("Invalid JSON schema", HttpStatus.BAD_REQUEST, violations);
             }
 
-            // Convert the requestBodyJson to a JSONObject
-            JSONObject newPlanJson = new JSONObject(objectMapper.writeValueAsString(requestBodyJson));
-
-            // Use createPlan to save the updated plan (assuming createPlan saves or updates the plan)
-            String newEtag = planService.createPlan(newPlanJson, key);
-            logAction(objectMapper.writeValueAsString(newPlanJson), "PUT");
+            // Swap the old plan graph for the replacement in a single batch
+            PlanWrite write = planService.replacePlan(newPlan, key, currentETag);
+            if (write == null) {
+                return createErrorResponse("Pre Condition Failed", HttpStatus.PRECONDITION_FAILED);
+            }
+            planEventPublisher.publish("UPDATE", id, write.revision());
+            logAction(newPlan.getJson(), "PUT");
 
-            ResponseObject responseObject = new ResponseObject("Plan replaced Successfully", HttpStatus.OK.value(), newPlanJson.get("objectId"));
-            return ResponseEntity.ok().eTag(newEtag).body(responseObject);
+            ResponseObject responseObject = new ResponseObject("Plan replaced Successfully", HttpStatus.OK.value(), newPlan.getObjectId());
+            return ResponseEntity.ok().eTag(write.eTag()).body(responseObject);
 
         } catch (JsonProcessingException e) {
             return createErrorResponse("Invalid JSON input: " + e.getMessage(), HttpStatus.BAD_REQUEST);
@@ -0,0 +1,26 @@
+package com.neu.info7255.raghav.assignment.demo.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * A line of a bulk load that failed: its 1-based line number, the plan's objectId when it could be read,
+ * the HTTP status the same plan would have received from POST /plan, and the error message with any
+ * schema violations.
+ */
+@Data
+@AllArgsConstructor
+public class BulkItemResult {
+
+    private long line;
+
+    private Object objectId;
+
+    private int status;
+
+    private String error;
+
+    private List<SchemaViolation> violations;
+}
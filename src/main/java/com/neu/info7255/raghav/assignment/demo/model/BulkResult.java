@@ -0,0 +1,19 @@
+package com.neu.info7255.raghav.assignment.demo.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class BulkResult {
+
+    private long created;
+
+    private long failed;
+
+    private long tookMillis;
+
+    private List<BulkItemResult> failures;
+}
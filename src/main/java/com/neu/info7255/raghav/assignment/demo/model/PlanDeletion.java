@@ -0,0 +1,10 @@
+package com.neu.info7255.raghav.assignment.demo.model;
+
+/**
+ * Outcome of deleting a plan.
+ *
+ * @param removedKeys The number of Redis keys removed.
+ * @param revision    The plan's revision after the delete.
+ */
+public record PlanDeletion(long removedKeys, long revision) {
+}
@@ -0,0 +1,81 @@
+package com.neu.info7255.raghav.assignment.demo.model;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * A plan document parsed once per request. Schema validation, eTag computation, the Redis mapper and the
+ * event publisher all read the same Jackson tree. The JSON text is the request body itself when the
+ * document was parsed from one, so publishing never serializes the tree again.
+ */
+public final class PlanDocument {
+
+    private final JsonNode tree;
+    private String json;
+
+    private PlanDocument(JsonNode tree, String json) {
+        this.tree = tree;
+        this.json = json;
+    }
+
+    /**
+     * Parses request text into a document.
+     *
+     * @throws JsonProcessingException If the text is not a single JSON object.
+     */
+    public static PlanDocument parse(ObjectMapper objectMapper, String json) throws JsonProcessingException {
+        JsonNode tree = objectMapper.readTree(json);
+        if (tree == null || !tree.isObject()) {
+            throw JsonMappingException.from((JsonParser) null, "A plan must be a JSON object");
+        }
+        return new PlanDocument(tree, json);
+    }
+
+    /**
+     * Wraps a tree that was built or merged in memory; its text is produced on first use.
+     */
+    public static PlanDocument of(JsonNode tree) {
+        return new PlanDocument(tree, null);
+    }
+
+    public JsonNode getTree() {
+        return tree;
+    }
+
+    public String getObjectType() {
+        return tree.path("objectType").asText();
+    }
+
+    public String getObjectId() {
+        return tree.path("objectId").asText();
+    }
+
+    /**
+     * The redis key of the document's root object, "objectType:objectId".
+     */
+    public String getObjectKey() {
+        return getObjectType() + ":" + getObjectId();
+    }
+
+    /**
+     * Length of the document's JSON text, or -1 if it was built in memory and not serialized yet.
+     */
+    public long getSourceLength() {
+        return json == null ? -1 : json.length();
+    }
+
+    public String getJson() {
+        if (json == null) {
+            json = tree.toString();
+        }
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return getJson();
+    }
+}
@@ -0,0 +1,12 @@
+package com.neu.info7255.raghav.assignment.demo.model;
+
+/**
+ * Indexing event for a plan. It does not carry the plan itself: IndexingListener reads the plan as it is
+ * when the event is processed, so the event only says which plan changed and up to which revision.
+ *
+ * @param op       SAVE, UPDATE or DELETE.
+ * @param planId   The objectId of the plan.
+ * @param revision The plan's revision after the change.
+ */
+public record PlanEvent(String op, String planId, long revision) {
+}
@@ -0,0 +1,21 @@
+package com.neu.info7255.raghav.assignment.demo.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+
+@Data
+@AllArgsConstructor
+public class PlanPage {
+
+    private List<Map<String, Object>> plans;
+
+    /**
+     * Cursor to pass back to fetch the following page, or null when this is the last page.
+     */
+    private String nextCursor;
+
+}
@@ -0,0 +1,10 @@
+package com.neu.info7255.raghav.assignment.demo.model;
+
+/**
+ * Outcome of storing a plan.
+ *
+ * @param eTag     The eTag of the stored plan.
+ * @param revision The plan's revision after this write; it only ever grows, also across delete and re-create.
+ */
+public record PlanWrite(String eTag, long revision) {
+}
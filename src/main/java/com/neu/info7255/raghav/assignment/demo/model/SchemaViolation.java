@@ -0,0 +1,18 @@
+package com.neu.info7255.raghav.assignment.demo.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * One schema violation: where in the document it is, which schema keyword failed, and a readable message.
+ */
+@Data
+@AllArgsConstructor
+public class SchemaViolation {
+
+    private String path;
+
+    private String keyword;
+
+    private String message;
+}
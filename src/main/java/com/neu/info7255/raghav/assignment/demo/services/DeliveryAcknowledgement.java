@@ -0,0 +1,92 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import com.rabbitmq.client.Channel;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Acks RabbitMQ deliveries once everything IndexingListener sent to Elasticsearch for them has completed, so a
+ * message only leaves its queue after its documents were indexed or given up on. Every request sent is pending
+ * until BulkListener reports it; the deliveries are acked once none is pending and the acknowledgement is sealed,
+ * that is, no more requests will be sent for them.
+ * <p>
+ * Deliveries are acked one by one, never with multiple, since a later message whose event sent nothing can
+ * complete before an earlier one.
+ */
+final class DeliveryAcknowledgement {
+
+    record Delivery(Channel channel, long deliveryTag) {
+    }
+
+    private final List<Delivery> deliveries = new ArrayList<>();
+    private int pending = 1;
+    private boolean sealed;
+
+    DeliveryAcknowledgement(Channel channel, long deliveryTag) {
+        deliveries.add(new Delivery(channel, deliveryTag));
+    }
+
+    /**
+     * Takes over the deliveries of another acknowledgement nothing was sent for yet, such as that of an event
+     * coalesced into a newer one, so they are acked together with this one's.
+     */
+    void include(DeliveryAcknowledgement other) {
+        List<Delivery> moved;
+        synchronized (other) {
+            moved = new ArrayList<>(other.deliveries);
+            other.deliveries.clear();
+        }
+        synchronized (this) {
+            if (sealed) {
+                throw new IllegalStateException("Acknowledgement already sealed");
+            }
+            deliveries.addAll(moved);
+        }
+    }
+
+    synchronized void requestSent() {
+        if (sealed) {
+            throw new IllegalStateException("Acknowledgement already sealed");
+        }
+        pending++;
+    }
+
+    void requestDone() {
+        complete();
+    }
+
+    /**
+     * Called once every request for the deliveries has been sent.
+     */
+    void seal() {
+        synchronized (this) {
+            if (sealed) {
+                return;
+            }
+            sealed = true;
+        }
+        complete();
+    }
+
+    synchronized boolean isAcked() {
+        return pending == 0;
+    }
+
+    private void complete() {
+        synchronized (this) {
+            if (--pending > 0) {
+                return;
+            }
+        }
+        for (Delivery delivery : deliveries) {
+            try {
+                delivery.channel().basicAck(delivery.deliveryTag(), false);
+            } catch (IOException | RuntimeException e) {
+                // The channel is gone; the broker redelivers the message to the next consumer
+                System.out.println("Could not ack delivery " + delivery.deliveryTag() + ": " + e.getMessage());
+            }
+        }
+    }
+}
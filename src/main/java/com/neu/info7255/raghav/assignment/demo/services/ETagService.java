@@ -1,44 +1,155 @@
 package com.neu.info7255.raghav.assignment.demo.services;
 
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Base64;
-import org.json.JSONObject;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.Collections;
+import java.util.List;
 
+/**
+ * Generates strong ETags for plan documents.
+ * The document is written as canonical JSON (object keys sorted, no whitespace) straight into the hash,
+ * so the same logical plan always produces the same tag regardless of the key order of the input,
+ * and no intermediate String is built.
+ * The algorithm comes from plan.etag.algorithm: any JCA MessageDigest name such as SHA-256,
+ * or murmur3_128 for a fast non-cryptographic 128-bit hash.
+ */
 @Service
 public class ETagService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ETagService.class);
-    private static final Charset CHARSET = StandardCharsets.UTF_8;
-    private final MessageDigest md;
 
-    public ETagService() {
-        MessageDigest tempMd = null;
-        try {
-            tempMd = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException noSuchEx) {
-            LOGGER.error("Error initializing SHA-256 MessageDigest", noSuchEx);
+    public static final String MURMUR3_128 = "murmur3_128";
+
+    private static final JsonFactory JSON_FACTORY = JsonFactory.builder()
+            .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+            .build();
+
+    private final HashFunction murmur;
+    private final ThreadLocal<MessageDigest> digests;
+
+    public ETagService(@Value("${plan.etag.algorithm:SHA-256}") String algorithm) {
+        if (MURMUR3_128.equalsIgnoreCase(algorithm)) {
+            this.murmur = Hashing.murmur3_128();
+            this.digests = null;
+        } else {
+            // Fail at start-up rather than on the first write
+            newDigest(algorithm);
+            this.murmur = null;
+            this.digests = ThreadLocal.withInitial(() -> newDigest(algorithm));
         }
-        this.md = tempMd;
+        LOGGER.info("ETags are generated with {}", algorithm);
     }
 
     /**
-     * Generates an ETag for a given JSONObject.
+     * Generates an ETag for a given JSON tree.
      *
-     * @param json The JSONObject for which the ETag needs to be generated.
+     * @param json The JSON tree for which the ETag needs to be generated.
      * @return The generated ETag.
      */
-    public String getETag(JSONObject json) {
-        byte[] hash = md.digest(json.toString().getBytes(CHARSET));
-        String encoded = Base64.getEncoder().encodeToString(hash);
-        return "\"" + encoded + "\"";
+    public String getETag(JsonNode json) {
+        byte[] hash;
+        if (murmur != null) {
+            Hasher hasher = murmur.newHasher();
+            writeCanonical(json, Funnels.asOutputStream(hasher));
+            hash = hasher.hash().asBytes();
+        } else {
+            MessageDigest md = digests.get();
+            md.reset();
+            writeCanonical(json, new DigestSink(md));
+            hash = md.digest();
+        }
+        return "\"" + Base64.getEncoder().encodeToString(hash) + "\"";
+    }
+
+    /**
+     * Writes the canonical form of a JSON tree to the given stream: keys sorted, no whitespace.
+     * Array order is significant and kept as is; equal numbers are written the same way however they were parsed.
+     */
+    static void writeCanonical(JsonNode json, OutputStream out) {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            writeValue(generator, json);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not serialize plan for its ETag", e);
+        }
     }
-}
 
+    private static void writeValue(JsonGenerator generator, JsonNode value) throws IOException {
+        if (value.isObject()) {
+            List<String> keys = new ArrayList<>(value.size());
+            value.fieldNames().forEachRemaining(keys::add);
+            Collections.sort(keys);
+            generator.writeStartObject();
+            for (String key : keys) {
+                generator.writeFieldName(key);
+                writeValue(generator, value.get(key));
+            }
+            generator.writeEndObject();
+        } else if (value.isArray()) {
+            generator.writeStartArray();
+            for (JsonNode element : value) {
+                writeValue(generator, element);
+            }
+            generator.writeEndArray();
+        } else if (value.isNull() || value.isMissingNode()) {
+            generator.writeNull();
+        } else if (value.isBoolean()) {
+            generator.writeBoolean(value.booleanValue());
+        } else if (value.isIntegralNumber()) {
+            generator.writeNumber(value.bigIntegerValue());
+        } else if (value.isNumber()) {
+            generator.writeNumber(value.decimalValue().stripTrailingZeros());
+        } else {
+            generator.writeString(value.asText());
+        }
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported plan.etag.algorithm: " + algorithm, e);
+        }
+    }
+
+    /**
+     * Feeds everything written to it into a MessageDigest.
+     */
+    private static final class DigestSink extends OutputStream {
+
+        private final MessageDigest md;
+
+        private DigestSink(MessageDigest md) {
+            this.md = md;
+        }
+
+        @Override
+        public void write(int b) {
+            md.update((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            md.update(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neu.info7255.raghav.assignment.demo.model.PlanDocument;
+import com.neu.info7255.raghav.assignment.demo.model.SchemaViolation;
+import org.everit.json.schema.Schema;
+import org.everit.json.schema.ValidationException;
+import org.everit.json.schema.Validator;
+import org.everit.json.schema.loader.SchemaLoader;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Validates plans with the everit validator. everit works on org.json objects, so the tree is copied
+ * node by node first.
+ */
+@Component
+public class EveritPlanSchemaEngine implements PlanSchemaEngine {
+
+    private final Schema jsonSchema;
+    private final Map<String, Schema> fragmentSchemas = new HashMap<>();
+    private final Validator validator = Validator.builder().build();
+    private final Validator failFastValidator = Validator.builder().failEarly().build();
+
+    public EveritPlanSchemaEngine(ObjectMapper objectMapper) {
+        JsonNode schemaNode;
+        try (InputStream in = getClass().getResourceAsStream(JsonSchemaValidatorService.SCHEMAPATH)) {
+            schemaNode = objectMapper.readTree(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read " + JsonSchemaValidatorService.SCHEMAPATH, e);
+        }
+        jsonSchema = SchemaLoader.load((JSONObject) toOrgJson(schemaNode));
+        PlanSubSchemas.extract(schemaNode).forEach((field, subSchema) ->
+                fragmentSchemas.put(field, SchemaLoader.load((JSONObject) toOrgJson(subSchema))));
+    }
+
+    @Override
+    public List<SchemaViolation> validate(PlanDocument plan, boolean failFast) {
+        return validate(jsonSchema, plan.getTree(), failFast, "#");
+    }
+
+    @Override
+    public List<SchemaViolation> validateFragment(String field, int index, JsonNode fragment, boolean failFast) {
+        Schema fragmentSchema = fragmentSchemas.get(field);
+        if (fragmentSchema == null) {
+            throw new IllegalArgumentException("No sub-schema for " + field);
+        }
+        return validate(fragmentSchema, fragment, failFast, "#/" + field + (index < 0 ? "" : "/" + index));
+    }
+
+    private List<SchemaViolation> validate(Schema schema, JsonNode node, boolean failFast, String at) {
+        try {
+            (failFast ? failFastValidator : validator).performValidation(schema, toOrgJson(node));
+            return List.of();
+        } catch (ValidationException vex) {
+            List<SchemaViolation> violations = new ArrayList<>();
+            collect(vex, at, violations);
+            return violations;
+        }
+    }
+
+    private static void collect(ValidationException vex, String at, List<SchemaViolation> violations) {
+        if (vex.getCausingExceptions().isEmpty()) {
+            String path = at + vex.getPointerToViolation().substring(1);
+            violations.add(new SchemaViolation(path, vex.getKeyword(), vex.getErrorMessage()));
+            return;
+        }
+        for (ValidationException cause : vex.getCausingExceptions()) {
+            collect(cause, at, violations);
+        }
+    }
+
+    private static Object toOrgJson(JsonNode node) {
+        if (node.isObject()) {
+            JSONObject object = new JSONObject();
+            node.fields().forEachRemaining(field -> object.put(field.getKey(), toOrgJson(field.getValue())));
+            return object;
+        }
+        if (node.isArray()) {
+            JSONArray array = new JSONArray();
+            node.forEach(element -> array.put(toOrgJson(element)));
+            return array;
+        }
+        if (node.isNull()) {
+            return JSONObject.NULL;
+        }
+        if (node.isNumber()) {
+            return node.numberValue();
+        }
+        if (node.isBoolean()) {
+            return node.booleanValue();
+        }
+        return node.asText();
+    }
+}
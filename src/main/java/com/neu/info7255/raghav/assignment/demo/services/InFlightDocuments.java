@@ -0,0 +1,71 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import org.elasticsearch.action.DocWriteRequest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The newest write of every document of a plan that was handed to the BulkProcessor and whose outcome is not known
+ * yet. The indexed:plan:{id} hash only learns of a write once its bulk has completed, so a second event of the same
+ * plan diffed against the hash alone would miss the writes still in flight: a change that is reverted before its bulk
+ * completes would look unchanged, and a child added and removed again would never be deleted. Overlaying the writes
+ * in flight on the hash gives the state the index is heading to.
+ */
+final class InFlightDocuments {
+
+    /**
+     * @param digest The digest of an indexed document, or null for a delete.
+     */
+    private record Write(DocWriteRequest<?> request, String digest) {
+    }
+
+    private final Map<String, Map<String, Write>> plans = new ConcurrentHashMap<>();
+
+    /**
+     * Records a request as sent; it replaces any earlier write of the same document.
+     *
+     * @param digest The digest of the document indexed, or null for a delete.
+     */
+    void sent(DocWriteRequest<?> request, String digest) {
+        plans.computeIfAbsent(request.routing(), planId -> new ConcurrentHashMap<>())
+                .put(request.id(), new Write(request, digest));
+    }
+
+    /**
+     * Forgets a request once its outcome has been recorded in the plan's hash. A newer write of the same document
+     * stays.
+     */
+    void completed(DocWriteRequest<?> request) {
+        plans.computeIfPresent(request.routing(), (planId, documents) -> {
+            documents.computeIfPresent(request.id(), (id, write) -> write.request() == request ? null : write);
+            return documents.isEmpty() ? null : documents;
+        });
+    }
+
+    /**
+     * Returns the digests of the plan's documents as they will be once the writes in flight complete.
+     *
+     * @param indexed Reads the digests recorded in the plan's hash.
+     */
+    Map<String, String> overlay(String planId, Supplier<Map<String, String>> indexed) {
+        // Taken before the hash is read: a write that completes in between is already in the hash
+        Map<String, Write> inFlight = new HashMap<>(plans.getOrDefault(planId, Map.of()));
+        Map<String, String> digests = new HashMap<>(indexed.get());
+        Map<String, Write> current = plans.getOrDefault(planId, Map.of());
+        for (Map.Entry<String, Write> entry : inFlight.entrySet()) {
+            Write write = entry.getValue();
+            if (current.get(entry.getKey()) != write) {
+                continue;
+            }
+            if (write.digest() == null) {
+                digests.remove(entry.getKey());
+            } else {
+                digests.put(entry.getKey(), write.digest());
+            }
+        }
+        return digests;
+    }
+}
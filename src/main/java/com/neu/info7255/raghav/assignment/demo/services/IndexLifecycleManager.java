@@ -0,0 +1,261 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest.AliasActions;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.client.GetAliasesResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.ReindexRequest;
+import org.elasticsearch.xcontent.XContentType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Owns the plan index in Elasticsearch. Documents live in versioned indices (indexplan_v1, indexplan_v2, ...);
+ * searches go through the read alias (indexplan) and IndexingListener writes through the write alias
+ * (indexplan_write), so a new version can be built and swapped in without downtime.
+ * <p>
+ * The aliases are resolved once at start-up. If Elasticsearch is not reachable then, the first indexing
+ * call retries; after that, ensureReady() is a field read.
+ */
+@Component
+public class IndexLifecycleManager implements ApplicationRunner {
+
+    private static final Pattern VERSION = Pattern.compile("_v(\\d+)$");
+
+    private final RestHighLevelClient client;
+    private final String name;
+    private final String writeAlias;
+    private final int shards;
+    private final int replicas;
+    private final String refreshInterval;
+    private final String bulkLoadRefreshInterval;
+    private final String mapping;
+
+    private volatile String writeIndex;
+    private int bulkLoads;
+    /**
+     * Keeps reindexes apart without holding the monitor bulk loads take for the whole copy.
+     */
+    private final Object reindexLock = new Object();
+
+    public IndexLifecycleManager(RestHighLevelClient client,
+                                 ObjectMapper objectMapper,
+                                 @Value("${plan.indexing.index.name:indexplan}") String name,
+                                 @Value("${plan.indexing.index.shards:1}") int shards,
+                                 @Value("${plan.indexing.index.replicas:1}") int replicas,
+                                 @Value("${plan.indexing.index.refresh-interval:1s}") String refreshInterval,
+                                 @Value("${plan.indexing.bulk-load.refresh-interval:30s}") String bulkLoadRefreshInterval) {
+        this.client = client;
+        this.name = name;
+        this.writeAlias = name + "_write";
+        this.shards = shards;
+        this.replicas = replicas;
+        this.refreshInterval = refreshInterval;
+        this.bulkLoadRefreshInterval = bulkLoadRefreshInterval;
+        this.mapping = PlanMappingGenerator.generate(
+                readResource(objectMapper, JsonSchemaValidatorService.SCHEMAPATH),
+                readResource(objectMapper, PlanMappingGenerator.OVERRIDESPATH)).toString();
+    }
+
+    private static JsonNode readResource(ObjectMapper objectMapper, String path) {
+        try (InputStream in = IndexLifecycleManager.class.getResourceAsStream(path)) {
+            return objectMapper.readTree(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read " + path, e);
+        }
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        try {
+            ensureReady();
+            System.out.println("Plan documents are written to " + writeIndex + " through " + writeAlias);
+        } catch (IOException | ElasticsearchException e) {
+            System.out.println("Elasticsearch not ready, index setup will be retried on first use: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Makes sure the versioned index and both aliases exist. Only the first successful call talks to Elasticsearch.
+     */
+    public void ensureReady() throws IOException {
+        if (writeIndex != null) {
+            return;
+        }
+        synchronized (this) {
+            if (writeIndex == null) {
+                writeIndex = initialize();
+            }
+        }
+    }
+
+    /**
+     * @return The alias searches should use.
+     */
+    public String getReadAlias() {
+        return name;
+    }
+
+    /**
+     * @return The alias documents are indexed and deleted through.
+     */
+    public String getWriteAlias() {
+        return writeAlias;
+    }
+
+    /**
+     * @return The mapping new index versions are created with, generated from PlanSchema.json.
+     */
+    public String getMapping() {
+        return mapping;
+    }
+
+    /**
+     * @return The index the write alias points to, or null if the index has not been set up yet.
+     */
+    public String getWriteIndex() {
+        return writeIndex;
+    }
+
+    /**
+     * Raises the refresh interval and drops replicas on the write index while plans are loaded in bulk.
+     * Calls nest; the normal settings come back with the last matching endBulkLoad().
+     */
+    public synchronized void beginBulkLoad() {
+        if (bulkLoads++ == 0) {
+            applySettings(0, bulkLoadRefreshInterval);
+        }
+    }
+
+    public synchronized void endBulkLoad() {
+        if (--bulkLoads == 0) {
+            applySettings(replicas, refreshInterval);
+        }
+    }
+
+    /**
+     * Copies the current index into the next version with the current mapping and settings, then moves the read alias.
+     * The write alias moves to the new index before the copy starts, so documents indexed meanwhile are not lost.
+     * The copy keeps each document's version, which is its plan revision, so it never overwrites a newer revision
+     * indexed meanwhile, nor brings back a document deleted meanwhile while its tombstone is kept (index.gc_deletes).
+     * Only the alias changes hold this manager's monitor; bulk loads can begin and end while the copy runs, and
+     * one ending meanwhile gives the new index its normal settings early.
+     *
+     * @return The result of the copy.
+     */
+    public BulkByScrollResponse reindex() throws IOException {
+        synchronized (reindexLock) {
+            ensureReady();
+            String source;
+            String target;
+            synchronized (this) {
+                source = writeIndex;
+                target = versionedIndex(version(source) + 1);
+                createIndex(target, 0, bulkLoadRefreshInterval);
+                client.indices().updateAliases(new IndicesAliasesRequest()
+                        .addAliasAction(AliasActions.remove().index(source).alias(writeAlias))
+                        .addAliasAction(AliasActions.add().index(target).alias(writeAlias).writeIndex(true)), RequestOptions.DEFAULT);
+                writeIndex = target;
+            }
+
+            ReindexRequest request = new ReindexRequest()
+                    .setSourceIndices(source)
+                    .setDestIndex(target)
+                    .setDestVersionType(VersionType.EXTERNAL)
+                    .setAbortOnVersionConflict(false)
+                    .setRefresh(true);
+            BulkByScrollResponse response = client.reindex(request, RequestOptions.DEFAULT);
+
+            synchronized (this) {
+                if (bulkLoads == 0) {
+                    applySettings(replicas, refreshInterval);
+                }
+                client.indices().updateAliases(new IndicesAliasesRequest()
+                        .addAliasAction(AliasActions.remove().index(source).alias(name))
+                        .addAliasAction(AliasActions.add().index(target).alias(name)), RequestOptions.DEFAULT);
+            }
+
+            System.out.println("Reindexed " + source + " into " + target + ": " + (response.getCreated() + response.getUpdated()) + " documents copied");
+            return response;
+        }
+    }
+
+    private String initialize() throws IOException {
+        GetAliasesResponse aliases = client.indices().getAlias(new GetAliasesRequest(writeAlias), RequestOptions.DEFAULT);
+        if (!aliases.getAliases().isEmpty()) {
+            return aliases.getAliases().keySet().iterator().next();
+        }
+
+        String index = versionedIndex(1);
+        if (!client.indices().exists(new GetIndexRequest(index), RequestOptions.DEFAULT)) {
+            createIndex(index, replicas, refreshInterval);
+        }
+
+        IndicesAliasesRequest request = new IndicesAliasesRequest()
+                .addAliasAction(AliasActions.add().index(index).alias(name))
+                .addAliasAction(AliasActions.add().index(index).alias(writeAlias).writeIndex(true));
+        boolean legacyIndex = !client.indices().existsAlias(new GetAliasesRequest(name), RequestOptions.DEFAULT)
+                && client.indices().exists(new GetIndexRequest(name), RequestOptions.DEFAULT);
+        if (legacyIndex) {
+            // An index created before versioning holds the alias name; copy it and drop it in the same alias change.
+            // Its documents carry internal versions, not revisions, so they are copied as new documents.
+            client.reindex(new ReindexRequest().setSourceIndices(name).setDestIndex(index).setRefresh(true), RequestOptions.DEFAULT);
+            request.addAliasAction(AliasActions.removeIndex().index(name));
+        }
+        client.indices().updateAliases(request, RequestOptions.DEFAULT);
+        return index;
+    }
+
+    private void createIndex(String index, int numberOfReplicas, String indexRefreshInterval) throws IOException {
+        CreateIndexRequest request = new CreateIndexRequest(index);
+        request.settings(Settings.builder()
+                .put("index.number_of_shards", shards)
+                .put("index.number_of_replicas", numberOfReplicas)
+                .put("index.refresh_interval", indexRefreshInterval));
+        request.mapping(mapping, XContentType.JSON);
+        boolean acknowledged = client.indices().create(request, RequestOptions.DEFAULT).isAcknowledged();
+        System.out.println("Index Creation: " + index + " " + acknowledged);
+    }
+
+    private void applySettings(int numberOfReplicas, String indexRefreshInterval) {
+        String index = writeIndex;
+        if (index == null) {
+            return;
+        }
+        try {
+            client.indices().putSettings(new UpdateSettingsRequest(index).settings(Settings.builder()
+                    .put("index.number_of_replicas", numberOfReplicas)
+                    .put("index.refresh_interval", indexRefreshInterval)), RequestOptions.DEFAULT);
+        } catch (IOException | ElasticsearchException e) {
+            System.out.println("Unable to update settings of " + index + ": " + e.getMessage());
+        }
+    }
+
+    private String versionedIndex(int version) {
+        return name + "_v" + version;
+    }
+
+    private static int version(String index) {
+        Matcher matcher = VERSION.matcher(index);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : 0;
+    }
+}
@@ -1,437 +1,654 @@
-package com.neu.info7255.raghav.assignment.demo.services;
-
-/**
- * @author Raghav Khanna
- */
-
-import org.apache.http.HttpHost;
-import org.elasticsearch.action.DocWriteResponse;
-import org.elasticsearch.action.delete.DeleteRequest;
-import org.elasticsearch.action.delete.DeleteResponse;
-import org.elasticsearch.action.index.IndexRequest;
-import org.elasticsearch.action.index.IndexResponse;
-import org.elasticsearch.client.RequestOptions;
-import org.elasticsearch.client.RestClient;
-import org.elasticsearch.client.RestHighLevelClient;
-import org.elasticsearch.client.indices.CreateIndexRequest;
-import org.elasticsearch.client.indices.CreateIndexResponse;
-import org.elasticsearch.client.indices.GetIndexRequest;
-import org.elasticsearch.common.Strings;
-import org.elasticsearch.common.settings.Settings;
-
-
-import org.elasticsearch.xcontent.XContentBuilder;
-import org.elasticsearch.xcontent.XContentFactory;
-import org.elasticsearch.xcontent.XContentType;
-import org.json.JSONArray;
-import org.json.JSONObject;
-import org.springframework.stereotype.Component;
-
-import java.io.IOException;
-import java.util.*;
-
-@Component
-public class IndexingListener {
-
-    private static RestHighLevelClient client = new RestHighLevelClient(
-            RestClient.builder(new HttpHost("localhost", 9200, "http")));
-    private static final String IndexName = "indexplan";
-
-
-    public void receiveMessage(Map<String, String> message) throws IOException {
-        System.out.println("Message received: " + message);
-
-        if (message == null || !message.containsKey("operation") || !message.containsKey("body")) {
-            System.out.println("Invalid message format: " + message);
-            return; // Skip processing if the message format is invalid
-        }
-
-        String operation = message.get("operation");
-        if (operation == null) {
-            System.out.println("Operation is null in the message: " + message);
-            return; // Skip processing if operation is null
-        }
-
-        System.out.println("Operation to be performed: " + operation);
-        String body = message.get("body");
-
-        try {
-            JSONObject jsonBody = new JSONObject(body); // This can throw JSONException if body is null or not a valid JSON
-
-            switch (operation) {
-                case "SAVE":
-                case "UPDATE":
-                    indexDocument(jsonBody);
-                    break;
-                case "DELETE":
-                    deleteDocument(jsonBody);
-                    break;
-                default:
-                    System.out.println("Unsupported operation: " + operation);
-            }
-        } catch (Exception e) {
-            System.out.println("Error processing message: " + message);
-            e.printStackTrace();
-        }
-    }
-
-
-    public static void indexDocument(JSONObject plan) throws IOException {
-        try{
-            if (!indexExists()) {
-                createElasticIndex();
-            }
-
-            Map<String, Map<String, Object>> MapOfDocuments = new HashMap<>();
-            convertMapToDocumentIndex(plan, "", "plan", MapOfDocuments);
-            //        System.out.println("------------------MapOfDocuments-------------------------");
-            //        System.out.println(MapOfDocuments.toString());
-            //        System.out.println("------------------newMap-------------------------");
-            //        System.out.println(newMap.toString());
-            for (Map.Entry<String, Map<String, Object>> entry : MapOfDocuments.entrySet()) {
-//                System.out.println("------------------entry-------------------------");
-//                System.out.println(entry);
-
-                String parentId = entry.getKey().split(":")[0];
-                String objectId = entry.getKey().split(":")[1];
-                IndexRequest request = new IndexRequest(IndexName);
-                request.id(objectId);
-                request.source(entry.getValue());
-                request.routing(parentId);
-                request.setRefreshPolicy("wait_for");
-//                System.out.println("------------------request-------------------------");
-//                System.out.println(request);
-                IndexResponse indexResponse = client.index(request, RequestOptions.DEFAULT);
-                System.out.println("response id: " + indexResponse.getId() + " parent id: " + parentId);
-
-            }
-        }catch (Exception e){
-            System.out.println("Post operation failed");
-            System.out.println(e.getMessage());
-        }
-    }
-
-    private static void deleteDocument(JSONObject jsonObject) throws IOException {
-
-        ArrayList<String> listOfKeys = new ArrayList<>();
-        convertToKeys(jsonObject, listOfKeys);
-        for (String key : listOfKeys) {
-            DeleteRequest request = new DeleteRequest(IndexName, key);
-            DeleteResponse deleteResponse = client.delete(
-                    request, RequestOptions.DEFAULT);
-            if (deleteResponse.getResult() == DocWriteResponse.Result.NOT_FOUND) {
-                System.out.println("Document " + key + " Not Found!!");
-            }
-        }
-    }
-
-    private static Map<String, Map<String, Object>> convertToKeys(JSONObject jsonObject, ArrayList listOfKeys) {
-
-        Map<String, Map<String, Object>> map = new HashMap<>();
-        Map<String, Object> valueMap = new HashMap<>();
-        Iterator<String> iterator = jsonObject.keys();
-        while (iterator.hasNext()) {
-
-            String key = iterator.next();
-            String redisKey = jsonObject.get("objectId").toString();
-            Object value = jsonObject.get(key);
-
-            if (value instanceof JSONObject) {
-
-                convertToKeys((JSONObject) value, listOfKeys);
-
-            } else if (value instanceof JSONArray) {
-
-                convertToKeysList((JSONArray) value, listOfKeys);
-
-            } else {
-                valueMap.put(key, value);
-                map.put(redisKey, valueMap);
-            }
-        }
-
-        listOfKeys.add(jsonObject.get("objectId").toString());
-        return map;
-
-    }
-
-    private static List<Object> convertToKeysList(JSONArray array, ArrayList listOfKeys) {
-        List<Object> list = new ArrayList<>();
-        for (int i = 0; i < array.length(); i++) {
-            Object value = array.get(i);
-            if (value instanceof JSONArray) {
-                value = convertToKeysList((JSONArray) value, listOfKeys);
-            } else if (value instanceof JSONObject) {
-                value = convertToKeys((JSONObject) value, listOfKeys);
-            }
-            list.add(value);
-        }
-        return list;
-    }
-
-
-    private static Map<String, Map<String, Object>> convertMapToDocumentIndex(JSONObject jsonObject,
-                                                                              String parentId, String objectName, Map<String, Map<String, Object>> MapOfDocuments) {
-
-        Map<String, Map<String, Object>> map = new HashMap<>();
-        Map<String, Object> valueMap = new HashMap<>();
-        Iterator<String> iterator = jsonObject.keys();
-
-        while (iterator.hasNext()) {
-
-            String key = iterator.next();
-            String redisKey = jsonObject.get("objectType") + ":" + parentId;
-            Object value = jsonObject.get(key);
-
-            if (value instanceof JSONObject) {
-
-                convertMapToDocumentIndex((JSONObject) value, jsonObject.get("objectId").toString(), key.toString(), MapOfDocuments);
-
-            } else if (value instanceof JSONArray) {
-
-                convertToList((JSONArray) value, jsonObject.get("objectId").toString(), key.toString(), MapOfDocuments);
-
-            } else {
-                valueMap.put(key, value);
-                map.put(redisKey, valueMap);
-            }
-        }
-
-        Map<String, Object> temp = new HashMap<>();
-        if (objectName == "plan") {
-            valueMap.put("plan_join", objectName);
-        } else {
-            temp.put("name", objectName);
-            temp.put("parent", parentId);
-            valueMap.put("plan_join", temp);
-        }
-
-        String id = parentId + ":" + jsonObject.get("objectId").toString();
-//        System.out.println("11111================================================");
-        MapOfDocuments.put(id, valueMap);
-//        System.out.println(MapOfDocuments);
-//        System.out.println("11111======map==========================================");
-//        System.out.println(map);
-        return MapOfDocuments;
-    }
-
-    private static List<Object> convertToList(JSONArray array, String parentId, String objectName, Map<String, Map<String, Object>> MapOfDocuments) {
-        List<Object> list = new ArrayList<>();
-        for (int i = 0; i < array.length(); i++) {
-            Object value = array.get(i);
-            if (value instanceof JSONArray) {
-                value = convertToList((JSONArray) value, parentId, objectName, MapOfDocuments);
-            } else if (value instanceof JSONObject) {
-                value = convertMapToDocumentIndex((JSONObject) value, parentId, objectName, MapOfDocuments);
-            }
-            list.add(value);
-        }
-        return list;
-    }
-
-    private static boolean indexExists() throws IOException {
-        GetIndexRequest request = new GetIndexRequest(IndexName);
-        boolean exists = client.indices().exists(request, RequestOptions.DEFAULT);
-        return exists;
-    }
-
-
-    private static void createElasticIndex() throws IOException {
-        CreateIndexRequest request = new CreateIndexRequest(IndexName);
-        request.settings(Settings.builder()
-                .put("index.number_of_shards", 1)
-                .put("index.number_of_replicas", 1));
-
-        XContentBuilder mapping = getMapping();
-        String mappingJson = Strings.toString(mapping); // Convert XContentBuilder to JSON String
-
-        request.mapping(mappingJson, XContentType.JSON); // Use the JSON string for mapping
-        CreateIndexResponse createIndexResponse = client.indices().create(request, RequestOptions.DEFAULT);
-
-        boolean acknowledged = createIndexResponse.isAcknowledged();
-        System.out.println("Index Creation: " + acknowledged);
-    }
-
-
-
-
-    private static XContentBuilder getMapping() throws IOException {
-
-        XContentBuilder builder = XContentFactory.jsonBuilder();
-        builder.startObject();
-        {
-            builder.startObject("properties");
-            {
-                builder.startObject("plan");
-                {
-                    builder.startObject("properties");
-                    {
-                        builder.startObject("_org");
-                        {
-                            builder.field("type", "text");
-                        }
-                        builder.endObject();
-                        builder.startObject("objectId");
-                        {
-                            builder.field("type", "keyword");
-                        }
-                        builder.endObject();
-                        builder.startObject("objectType");
-                        {
-                            builder.field("type", "text");
-                        }
-                        builder.endObject();
-                        builder.startObject("planType");
-                        {
-                            builder.field("type", "text");
-                        }
-                        builder.endObject();
-                        builder.startObject("creationDate");
-                        {
-                            builder.field("type", "date");
-                            builder.field("format", "MM-dd-yyyy");
-                        }
-                        builder.endObject();
-                    }
-                    builder.endObject();
-                }
-                builder.endObject();
-                builder.startObject("planCostShares");
-                {
-                    builder.startObject("properties");
-                    {
-                        builder.startObject("copay");
-                        {
-                            builder.field("type", "long");
-                        }
-                        builder.endObject();
-                        builder.startObject("deductible");
-                        {
-                            builder.field("type", "long");
-                        }
-                        builder.endObject();
-                        builder.startObject("_org");
-                        {
-                            builder.field("type", "text");
-                        }
-                        builder.endObject();
-                        builder.startObject("objectId");
-                        {
-                            builder.field("type", "keyword");
-                        }
-                        builder.endObject();
-                        builder.startObject("objectType");
-                        {
-                            builder.field("type", "text");
-                        }
-                        builder.endObject();
-                    }
-                    builder.endObject();
-                }
-                builder.endObject();
-                builder.startObject("linkedPlanServices");
-                {
-                    builder.startObject("properties");
-                    {
-                        builder.startObject("_org");
-                        {
-                            builder.field("type", "text");
-                        }
-                        builder.endObject();
-                        builder.startObject("objectId");
-                        {
-                            builder.field("type", "keyword");
-                        }
-                        builder.endObject();
-                        builder.startObject("objectType");
-                        {
-                            builder.field("type", "text");
-                        }
-                        builder.endObject();
-                    }
-                    builder.endObject();
-                }
-                builder.endObject();
-                builder.startObject("linkedService");
-                {
-                    builder.startObject("properties");
-                    {
-                        builder.startObject("name");
-                        {
-                            builder.field("type", "text");
-                        }
-                        builder.endObject();
-                        builder.startObject("_org");
-                        {
-                            builder.field("type", "text");
-                        }
-                        builder.endObject();
-                        builder.startObject("objectId");
-                        {
-                            builder.field("type", "keyword");
-                        }
-                        builder.endObject();
-                        builder.startObject("objectType");
-                        {
-                            builder.field("type", "text");
-                        }
-                        builder.endObject();
-                    }
-                    builder.endObject();
-                }
-                builder.endObject();
-                builder.startObject("planserviceCostShares");
-                {
-                    builder.startObject("properties");
-                    {
-                        builder.startObject("copay");
-                        {
-                            builder.field("type", "long");
-                        }
-                        builder.endObject();
-                        builder.startObject("deductible");
-                        {
-                            builder.field("type", "long");
-                        }
-                        builder.endObject();
-                        builder.startObject("_org");
-                        {
-                            builder.field("type", "text");
-                        }
-                        builder.endObject();
-                        builder.startObject("objectId");
-                        {
-                            builder.field("type", "keyword");
-                        }
-                        builder.endObject();
-                        builder.startObject("objectType");
-                        {
-                            builder.field("type", "text");
-                        }
-                        builder.endObject();
-                    }
-                    builder.endObject();
-                }
-                builder.endObject();
-                builder.startObject("plan_join");
-                {
-                    builder.field("type", "join");
-                    builder.field("eager_global_ordinals", "true");
-                    builder.startObject("relations");
-                    {
-                        builder.array("plan", "planCostShares", "linkedPlanServices");
-                        builder.array("linkedPlanServices", "linkedService", "planserviceCostShares");
-                    }
-                    builder.endObject();
-                }
-                builder.endObject();
-            }
-            builder.endObject();
-        }
-        builder.endObject();
-
-        return builder;
-
-    }
-
-}
+package com.neu.info7255.raghav.assignment.demo.services;
+
+/**
+ * @author Raghav Khanna
+ */
+
+import com.neu.info7255.raghav.assignment.demo.model.PlanEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.lucene.uid.Versions;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+
+import com.rabbitmq.client.Channel;
+import org.json.JSONObject;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Indexes plan events into Elasticsearch. Documents of all messages go through one BulkProcessor, which
+ * sends them as _bulk requests once plan.indexing.bulk.actions documents or plan.indexing.bulk.size bytes
+ * are buffered, or plan.indexing.bulk.flush-interval has passed, with at most
+ * plan.indexing.bulk.concurrent-requests requests in flight. Rejected items are retried with backoff;
+ * other item failures are logged and counted in plan.indexing.bulk.failures.
+ * <p>
+ * Events only name the plan and its revision (see {@link PlanEventCodec}); the plan is read from Redis when the
+ * event is processed. An event older than the plan's current revision is skipped, because a later event of the
+ * same plan follows it in the partition and indexes the newer state.
+ * <p>
+ * For the same reason only the newest event of each plan in a batch is processed. With
+ * plan.indexing.coalesce.window set, events are held for up to that long across batches, so a burst of
+ * updates to one plan is indexed once. Dropped events are counted in plan.indexing.events.coalesced.
+ * <p>
+ * Partition messages are acked manually, once the requests sent for their events have completed (see
+ * {@link DeliveryAcknowledgement}); the message of a dropped event is acked with the event it was coalesced into.
+ * A held event's message stays unacked for the window, so the broker redelivers it after a crash, but each
+ * partition holds at most plan.indexing.consumer.prefetch messages in the window and in flight together.
+ * <p>
+ * Every document is written with the plan's revision as its external version, so Elasticsearch rejects a write
+ * that is older than what the index holds, whatever order events arrive in and however many consumers index.
+ * Rejected writes are counted in plan.indexing.bulk.stale. Deletes leave a tombstone with their version for
+ * index.gc_deletes (60s by default); a write older than a delete is only rejected within that time.
+ * <p>
+ * The digest of every document sent to the index is kept per plan in the Redis hash indexed:plan:{id}, keyed by
+ * objectId. A SAVE or UPDATE only writes the documents that differ from it and deletes the ones the plan no longer
+ * has (see {@link PlanDocumentDiff}), so a small PATCH or PUT of a large plan costs a few writes. A digest is
+ * recorded only once Elasticsearch has accepted the document, and a deleted document leaves the hash only once its
+ * delete succeeded, so a crash before a bulk is sent costs a rewrite rather than a lost document. A document
+ * Elasticsearch refuses is dropped from the hash, so the next change of its plan writes it again. An event is diffed
+ * against the hash with the plan's writes still in flight applied (see {@link InFlightDocuments}). The hash follows
+ * bulks in the order they complete, which is the order they were sent while plan.indexing.bulk.concurrent-requests
+ * is 1.
+ */
+@Component
+public class IndexingListener {
+
+    /**
+     * Upper bound on the documents of one plan found for a delete; the default index.max_result_window.
+     */
+    private static final int MAX_PLAN_DOCUMENTS = 10_000;
+
+    public static final String INDEXED_PREFIX = "indexed:";
+
+    /**
+     * Digest of a document whose state in the index is unknown; it never matches, so the next change writes it again.
+     */
+    private static final String UNKNOWN_DIGEST = "";
+
+    private final RestHighLevelClient client;
+    private final IndexLifecycleManager indexLifecycleManager;
+    private final PlanService planService;
+    private final JedisPool jedisPool;
+    private final PlanEventCodec codec;
+    private final BulkProcessor bulkProcessor;
+    private final WriteRequest.RefreshPolicy refreshPolicy;
+    private final MeterRegistry meterRegistry;
+    private final DistributionSummary bulkActions;
+    private final DistributionSummary bulkBytes;
+    private final Timer bulkLatency;
+    private final Map<Long, Long> bulkStartNanos = new ConcurrentHashMap<>();
+    /**
+     * Every request handed to the BulkProcessor, until BulkListener reports its outcome.
+     */
+    private final Map<DocWriteRequest<?>, SentRequest> sentRequests = new ConcurrentHashMap<>();
+    private final InFlightDocuments inFlightDocuments = new InFlightDocuments();
+    private final AtomicInteger bulksInFlight = new AtomicInteger();
+    private final Timer indexingLag;
+    private final Counter supersededEvents;
+    private final Counter unchangedDocuments;
+    private final Duration coalesceWindow;
+    private final PlanEventCoalescer windowedEvents = new PlanEventCoalescer();
+    private final ScheduledExecutorService coalesceScheduler;
+    /**
+     * Records the outcome of every bulk in Redis and acks its messages, off the Elasticsearch client's I/O thread.
+     * A single thread, so outcomes are recorded in the order bulks complete.
+     */
+    private final ExecutorService bulkOutcomes = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "plan-indexing-outcomes");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final MessageConverter messageConverter = new SimpleMessageConverter();
+
+    public IndexingListener(RestHighLevelClient client,
+                            IndexLifecycleManager indexLifecycleManager,
+                            PlanService planService,
+                            JedisPool jedisPool,
+                            PlanEventCodec codec,
+                            MeterRegistry meterRegistry,
+                            @Value("${plan.indexing.bulk.actions:1000}") int bulkActions,
+                            @Value("${plan.indexing.bulk.size:5MB}") DataSize bulkSize,
+                            @Value("${plan.indexing.bulk.flush-interval:1s}") Duration flushInterval,
+                            @Value("${plan.indexing.bulk.concurrent-requests:1}") int concurrentRequests,
+                            @Value("${plan.indexing.refresh-policy:false}") String refreshPolicy,
+                            @Value("${plan.indexing.coalesce.window:0ms}") Duration coalesceWindow) {
+        this.client = client;
+        this.indexLifecycleManager = indexLifecycleManager;
+        this.planService = planService;
+        this.jedisPool = jedisPool;
+        this.codec = codec;
+        this.refreshPolicy = WriteRequest.RefreshPolicy.parse(refreshPolicy);
+        this.meterRegistry = meterRegistry;
+        this.bulkActions = DistributionSummary.builder("plan.indexing.bulk.actions")
+                .description("Documents per _bulk request")
+                .register(meterRegistry);
+        this.bulkBytes = DistributionSummary.builder("plan.indexing.bulk.size")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.bulkLatency = meterRegistry.timer("plan.indexing.bulk.latency");
+        meterRegistry.gauge("plan.indexing.bulk.in-flight", bulksInFlight);
+        this.indexingLag = Timer.builder("plan.indexing.lag")
+                .description("Time from publishing a plan event to its consumption")
+                .register(meterRegistry);
+        this.supersededEvents = Counter.builder("plan.indexing.events.superseded")
+                .description("Events skipped because the plan has changed again since")
+                .register(meterRegistry);
+        this.unchangedDocuments = Counter.builder("plan.indexing.documents.unchanged")
+                .description("Documents not written because they equal what was last indexed")
+                .register(meterRegistry);
+        this.coalesceWindow = coalesceWindow;
+        Gauge.builder("plan.indexing.events.pending", windowedEvents, PlanEventCoalescer::size)
+                .description("Plans waiting for the coalescing window to close")
+                .register(meterRegistry);
+
+        this.bulkProcessor = BulkProcessor.builder(
+                        (request, listener) -> client.bulkAsync(request, RequestOptions.DEFAULT, listener),
+                        new BulkListener(), "plan-indexing")
+                .setBulkActions(bulkActions)
+                .setBulkSize(new ByteSizeValue(bulkSize.toBytes()))
+                .setFlushInterval(TimeValue.timeValueMillis(flushInterval.toMillis()))
+                .setConcurrentRequests(concurrentRequests)
+                .setBackoffPolicy(BackoffPolicy.exponentialBackoff(TimeValue.timeValueMillis(100), 3))
+                .build();
+
+        if (coalesceWindow.isZero()) {
+            this.coalesceScheduler = null;
+        } else {
+            this.coalesceScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "plan-event-coalescer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long windowMillis = coalesceWindow.toMillis();
+            coalesceScheduler.scheduleWithFixedDelay(() -> process(windowedEvents.drain()),
+                    windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Sends whatever is still buffered and waits for the requests in flight before the client goes away.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (coalesceScheduler != null) {
+            coalesceScheduler.shutdown();
+            coalesceScheduler.awaitTermination(30, TimeUnit.SECONDS);
+            process(windowedEvents.drain());
+        }
+        if (!bulkProcessor.awaitClose(30, TimeUnit.SECONDS)) {
+            System.out.println("Timed out waiting for pending bulk index requests");
+        }
+        bulkOutcomes.shutdown();
+        if (!bulkOutcomes.awaitTermination(30, TimeUnit.SECONDS)) {
+            System.out.println("Timed out recording the outcome of bulk index requests");
+        }
+    }
+
+    /**
+     * Receives a batch of one indexing partition, in publish order. The documents of all messages
+     * end up in the same BulkProcessor, so a batch usually leaves as one _bulk request. A message is acked
+     * once every request sent for its event, or for the newer event it was coalesced into, has completed, not
+     * when this returns, so documents still buffered or held in the window when the process dies are indexed
+     * again from the redelivered messages.
+     */
+    @SuppressWarnings("unchecked")
+    public void receiveMessages(List<Message> messages, Channel channel) {
+        // Without a window, events are only coalesced within the batch
+        PlanEventCoalescer events = coalesceScheduler == null ? new PlanEventCoalescer() : windowedEvents;
+        long now = System.currentTimeMillis();
+        for (Message message : messages) {
+            Date published = message.getMessageProperties().getTimestamp();
+            if (published != null) {
+                indexingLag.record(now - published.getTime(), TimeUnit.MILLISECONDS);
+            }
+            DeliveryAcknowledgement acknowledgement =
+                    new DeliveryAcknowledgement(channel, message.getMessageProperties().getDeliveryTag());
+            try {
+                if (codec.canDecode(message)) {
+                    // Sealed once the event, or the one it is coalesced into, has been processed
+                    coalesce(events, codec.decode(message), acknowledgement);
+                } else {
+                    // Published before events became claim checks; still carries the whole plan
+                    handleLegacyMessage((Map<String, String>) messageConverter.fromMessage(message), acknowledgement);
+                    acknowledgement.seal();
+                }
+            } catch (Exception e) {
+                // One broken message must not hold up the rest of its partition
+                System.out.println("Error processing message: " + message);
+                e.printStackTrace();
+                acknowledgement.seal();
+            }
+        }
+        if (events != windowedEvents) {
+            process(events.drain());
+        }
+    }
+
+    private void coalesce(PlanEventCoalescer events, PlanEvent event, DeliveryAcknowledgement acknowledgement) {
+        PlanEvent dropped = events.add(event, acknowledgement);
+        if (dropped != null) {
+            meterRegistry.counter("plan.indexing.events.coalesced", "operation", dropped.op()).increment();
+        }
+    }
+
+    /**
+     * Processes the events, then sends their documents right away rather than after the flush interval,
+     * since their messages stay unacked until then.
+     */
+    private void process(List<PlanEventCoalescer.Pending> events) {
+        for (PlanEventCoalescer.Pending pending : events) {
+            DeliveryAcknowledgement acknowledgement = pending.acknowledgement();
+            try {
+                if (pending.deleteFirst() && !isTracked(pending.event().planId())) {
+                    // The plan was deleted and created again; children the new plan lacks must go.
+                    // A tracked plan does not need this, its diff deletes them.
+                    deletePlanDocuments(pending.event().planId(), pending.event().revision(), acknowledgement);
+                }
+                receiveEvent(pending.event(), acknowledgement);
+            } catch (Exception e) {
+                System.out.println("Error processing event: " + pending.event());
+                e.printStackTrace();
+            } finally {
+                if (acknowledgement != null) {
+                    acknowledgement.seal();
+                }
+            }
+        }
+        bulkProcessor.flush();
+    }
+
+    /**
+     * Indexes the plan as it is now in Redis, or removes it from the index if it has been deleted.
+     */
+    private void receiveEvent(PlanEvent event, DeliveryAcknowledgement acknowledgement) throws IOException {
+        String planKey = "plan:" + event.planId();
+        long revision = planService.getRevision(planKey);
+        if (event.revision() < revision) {
+            System.out.println("Skipping " + event.op() + " of " + planKey + " at revision " + event.revision()
+                    + ", plan is at revision " + revision);
+            supersededEvents.increment();
+            return;
+        }
+
+        switch (event.op()) {
+            case "SAVE":
+            case "UPDATE":
+                // Not through the near cache: its invalidation can arrive after this event, and the cached plan
+                // would be indexed at the new revision
+                Map<String, Object> plan = planService.loadPlan(planKey);
+                if (plan.isEmpty()) {
+                    System.out.println("Plan " + planKey + " no longer exists, nothing to index");
+                    return;
+                }
+                // The plan read now is at least at this revision, so the version never claims a newer state than indexed
+                syncPlanDocuments(event.planId(), new JSONObject(plan), revision, acknowledgement);
+                break;
+            case "DELETE":
+                deletePlanDocuments(event.planId(), revision, acknowledgement);
+                break;
+            default:
+                System.out.println("Unsupported operation: " + event.op());
+        }
+    }
+
+    public void receiveMessage(Map<String, String> message) {
+        // Consumed from the legacy queue, whose container acks on its own
+        handleLegacyMessage(message, null);
+    }
+
+    private void handleLegacyMessage(Map<String, String> message, DeliveryAcknowledgement acknowledgement) {
+        System.out.println("Message received: " + message);
+
+        if (message == null || !message.containsKey("operation") || !message.containsKey("body")) {
+            System.out.println("Invalid message format: " + message);
+            return; // Skip processing if the message format is invalid
+        }
+
+        String operation = message.get("operation");
+        if (operation == null) {
+            System.out.println("Operation is null in the message: " + message);
+            return; // Skip processing if operation is null
+        }
+
+        System.out.println("Operation to be performed: " + operation);
+        String body = message.get("body");
+
+        try {
+            JSONObject jsonBody = new JSONObject(body); // This can throw JSONException if body is null or not a valid JSON
+
+            switch (operation) {
+                case "SAVE":
+                case "UPDATE":
+                    indexDocument(jsonBody, acknowledgement);
+                    break;
+                case "DELETE":
+                    deleteDocument(jsonBody, acknowledgement);
+                    break;
+                default:
+                    System.out.println("Unsupported operation: " + operation);
+            }
+        } catch (Exception e) {
+            System.out.println("Error processing message: " + message);
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * Indexes a plan from a message published before events carried revisions, without a version.
+     */
+    private void indexDocument(JSONObject plan, DeliveryAcknowledgement acknowledgement) {
+        try{
+            indexLifecycleManager.ensureReady();
+
+            for (PlanDocumentFlattener.IndexedDocument document : PlanDocumentFlattener.flatten(plan)) {
+                send(indexRequest(document, Versions.MATCH_ANY), null, acknowledgement);
+            }
+        }catch (Exception e){
+            System.out.println("Post operation failed");
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the documents of the plan that are new or changed since it was last indexed and deletes the ones it
+     * no longer has, all at the given revision. The diff is taken against what the index holds once the writes still
+     * in flight complete; BulkListener records the digests of the documents Elasticsearch accepts.
+     */
+    private void syncPlanDocuments(String planId, JSONObject plan, long revision,
+                                   DeliveryAcknowledgement acknowledgement) throws IOException {
+        indexLifecycleManager.ensureReady();
+        List<PlanDocumentFlattener.IndexedDocument> documents = PlanDocumentFlattener.flatten(plan);
+
+        PlanDocumentDiff diff = PlanDocumentDiff.between(indexedDigests(planId), documents);
+
+        for (String id : diff.removed()) {
+            send(deleteRequest(id, planId, revision), null, acknowledgement);
+        }
+        for (PlanDocumentFlattener.IndexedDocument document : diff.changed()) {
+            send(indexRequest(document, revision), diff.digests().get(document.id()), acknowledgement);
+        }
+        unchangedDocuments.increment(documents.size() - diff.changed().size());
+        System.out.println("Plan " + planId + " at revision " + revision + ": " + diff.changed().size() + " of "
+                + documents.size() + " documents changed, " + diff.removed().size() + " removed");
+    }
+
+    /**
+     * Hands a request to the BulkProcessor.
+     *
+     * @param digest          The digest to record for the document once it is indexed, or null.
+     * @param acknowledgement Acks the messages the request was sent for once it completes, or null.
+     */
+    private void send(DocWriteRequest<?> request, String digest, DeliveryAcknowledgement acknowledgement) {
+        if (acknowledgement != null) {
+            acknowledgement.requestSent();
+        }
+        sentRequests.put(request, new SentRequest(digest, acknowledgement));
+        if (request.opType() == DocWriteRequest.OpType.DELETE) {
+            inFlightDocuments.sent(request, null);
+        } else {
+            // Written without a digest, so whatever it holds matches no document
+            inFlightDocuments.sent(request, digest == null ? UNKNOWN_DIGEST : digest);
+        }
+        try {
+            bulkProcessor.add(request);
+        } catch (RuntimeException e) {
+            completed(request);
+            throw e;
+        }
+    }
+
+    /**
+     * Forgets a request whose outcome is known and counts it as done for the messages it was sent for.
+     */
+    private void completed(DocWriteRequest<?> request) {
+        inFlightDocuments.completed(request);
+        SentRequest sent = sentRequests.remove(request);
+        if (sent != null && sent.acknowledgement() != null) {
+            sent.acknowledgement().requestDone();
+        }
+    }
+
+    /**
+     * @param revision The plan's revision, or Versions.MATCH_ANY to write without a version.
+     */
+    private IndexRequest indexRequest(PlanDocumentFlattener.IndexedDocument document, long revision) {
+        IndexRequest request = new IndexRequest(indexLifecycleManager.getWriteAlias());
+        request.id(document.id());
+        request.source(document.source());
+        request.routing(document.routing());
+        if (revision != Versions.MATCH_ANY) {
+            // GTE: a redelivered event rewrites the same revision, and a re-created plan follows its delete
+            request.version(revision).versionType(VersionType.EXTERNAL_GTE);
+        }
+        return request;
+    }
+
+    private DeleteRequest deleteRequest(String id, String planId, long revision) {
+        return new DeleteRequest(indexLifecycleManager.getWriteAlias(), id)
+                .routing(planId)
+                .version(revision)
+                .versionType(VersionType.EXTERNAL_GTE);
+    }
+
+    private boolean isTracked(String planId) {
+        return !indexedDigests(planId).isEmpty();
+    }
+
+    /**
+     * The digests of the plan's documents in its indexed:plan:{id} hash, with the writes still in flight applied.
+     */
+    private Map<String, String> indexedDigests(String planId) {
+        return inFlightDocuments.overlay(planId, () -> {
+            try (Jedis jedis = jedisPool.getResource()) {
+                return jedis.hgetAll(indexedKey(planId));
+            }
+        });
+    }
+
+    public static String indexedKey(String planId) {
+        return INDEXED_PREFIX + "plan:" + planId;
+    }
+
+    private void deleteDocument(JSONObject jsonObject, DeliveryAcknowledgement acknowledgement) {
+        // Same routing as at index time, otherwise the delete looks on the wrong shard
+        for (PlanDocumentFlattener.IndexedDocument document : PlanDocumentFlattener.flatten(jsonObject)) {
+            send(new DeleteRequest(indexLifecycleManager.getWriteAlias(), document.id()).routing(document.routing()),
+                    null, acknowledgement);
+        }
+    }
+
+    /**
+     * Deletes every document of a plan that is no longer in Redis, as recorded in its indexed:plan:{id} hash
+     * or still being written. Each document leaves the hash once its delete succeeded, so the hash is gone once all of them are.
+     * For a plan indexed before the hash was kept, the documents are searched by their routing, the plan id,
+     * which finds them on a single shard. That search only sees documents that were refreshed: documents of the
+     * plan indexed within the last refresh interval before the delete are not found and stay in the index.
+     */
+    private void deletePlanDocuments(String planId, long revision, DeliveryAcknowledgement acknowledgement) throws IOException {
+        indexLifecycleManager.ensureReady();
+
+        Set<String> ids = new LinkedHashSet<>();
+        ids.add(planId);
+        ids.addAll(indexedDigests(planId).keySet());
+        if (ids.size() == 1) {
+            ids.addAll(searchPlanDocuments(planId));
+        }
+        for (String id : ids) {
+            send(deleteRequest(id, planId, revision), null, acknowledgement);
+        }
+    }
+
+    private List<String> searchPlanDocuments(String planId) throws IOException {
+        // Send what is buffered, so the plan's own index requests do not land after its deletes
+        bulkProcessor.flush();
+
+        SearchRequest search = new SearchRequest(indexLifecycleManager.getWriteAlias())
+                .routing(planId)
+                .source(new SearchSourceBuilder()
+                        .query(QueryBuilders.termQuery("_routing", planId))
+                        .fetchSource(false)
+                        .size(MAX_PLAN_DOCUMENTS));
+        SearchResponse response = client.search(search, RequestOptions.DEFAULT);
+
+        List<String> ids = new ArrayList<>();
+        for (SearchHit hit : response.getHits().getHits()) {
+            ids.add(hit.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * @param digest          The digest to record once the document is indexed, or null.
+     * @param acknowledgement The messages the request was sent for, or null.
+     */
+    private record SentRequest(String digest, DeliveryAcknowledgement acknowledgement) {
+    }
+
+    /**
+     * Applies the refresh policy to every _bulk request and records what it carries. Afterwards it records the
+     * digests of the documents Elasticsearch accepted and removes the deleted ones from their plan's hash, then logs
+     * and counts the items it refused. A missing document on delete is a result, not a failure, and a version
+     * conflict means the index already holds a newer revision. Either way the document's digest is taken back.
+     */
+    private class BulkListener implements BulkProcessor.Listener {
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            request.setRefreshPolicy(refreshPolicy);
+            bulkActions.record(request.numberOfActions());
+            bulkBytes.record(request.estimatedSizeInBytes());
+            bulkStartNanos.put(executionId, System.nanoTime());
+            bulksInFlight.incrementAndGet();
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            finished(executionId);
+            Set<DocWriteRequest<?>> refused = new HashSet<>();
+            for (BulkItemResponse item : response.getItems()) {
+                if (item.isFailed()) {
+                    refused.add(request.requests().get(item.getItemId()));
+                }
+                if (item.isFailed() && item.status() == RestStatus.CONFLICT) {
+                    System.out.println("Skipped stale " + item.getOpType() + " of " + item.getId() + ": " + item.getFailureMessage());
+                    meterRegistry.counter("plan.indexing.bulk.stale", "operation", item.getOpType().getLowercase()).increment();
+                } else if (item.isFailed()) {
+                    System.out.println("Indexing " + item.getOpType() + " of " + item.getId() + " failed: " + item.getFailureMessage());
+                    countFailures(item.status().name(), 1);
+                } else if (item.getResponse().getResult() == DocWriteResponse.Result.NOT_FOUND) {
+                    System.out.println("Document " + item.getId() + " Not Found!!");
+                }
+            }
+            recordOutcome(request, refused);
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            finished(executionId);
+            System.out.println("Bulk request of " + request.numberOfActions() + " documents failed: " + failure.getMessage());
+            countFailures(failure.getClass().getSimpleName(), request.numberOfActions());
+            recordOutcome(request, new HashSet<>(request.requests()));
+        }
+
+        /**
+         * Hands the digest writes and acks to bulkOutcomes, so a slow Redis does not hold up the responses of
+         * other bulks on the client's I/O thread.
+         */
+        private void recordOutcome(BulkRequest request, Set<DocWriteRequest<?>> refused) {
+            bulkOutcomes.execute(() -> {
+                updateDigests(request.requests(), refused);
+                request.requests().forEach(IndexingListener.this::completed);
+            });
+        }
+
+        /**
+         * Records the digests of the accepted index requests and drops the documents whose delete succeeded, in the
+         * order they were sent. Refused documents are marked as unknown, so the next change of their plan writes or
+         * deletes them again. Index requests sent without a digest, from messages that carried the whole plan, are
+         * not tracked.
+         */
+        private void updateDigests(List<DocWriteRequest<?>> requests, Set<DocWriteRequest<?>> refused) {
+            try (Jedis jedis = jedisPool.getResource()) {
+                Pipeline pipeline = jedis.pipelined();
+                for (DocWriteRequest<?> request : requests) {
+                    SentRequest sent = sentRequests.get(request);
+                    String digest = sent == null ? null : sent.digest();
+                    String indexedKey = indexedKey(request.routing());
+                    boolean delete = request.opType() == DocWriteRequest.OpType.DELETE;
+                    if (refused.contains(request)) {
+                        if (delete) {
+                            // Still in the index; an unknown digest matches no document, so the next diff deletes it again
+                            pipeline.hset(indexedKey, request.id(), UNKNOWN_DIGEST);
+                        } else {
+                            pipeline.hdel(indexedKey, request.id());
+                        }
+                    } else if (delete) {
+                        pipeline.hdel(indexedKey, request.id());
+                    } else if (digest != null) {
+                        pipeline.hset(indexedKey, request.id(), digest);
+                    }
+                }
+                pipeline.sync();
+            } catch (JedisException e) {
+                System.out.println("Could not update the digests of " + requests.size() + " indexed documents: " + e.getMessage());
+            }
+        }
+
+        private void finished(long executionId) {
+            bulksInFlight.decrementAndGet();
+            Long startNanos = bulkStartNanos.remove(executionId);
+            if (startNanos != null) {
+                bulkLatency.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void countFailures(String reason, int documents) {
+            meterRegistry.counter("plan.indexing.bulk.failures", "reason", reason).increment(documents);
+        }
+    }
+
+}
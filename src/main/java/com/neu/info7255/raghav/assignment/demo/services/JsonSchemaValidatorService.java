@@ -1,34 +1,66 @@
 package com.neu.info7255.raghav.assignment.demo.services;
 
-import org.everit.json.schema.Schema;
-import org.everit.json.schema.ValidationException;
-import org.everit.json.schema.loader.SchemaLoader;
-import org.json.JSONObject;
-import org.json.JSONTokener;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.neu.info7255.raghav.assignment.demo.model.PlanDocument;
+import com.neu.info7255.raghav.assignment.demo.model.SchemaViolation;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * Checks plans against PlanSchema.json with the engine chosen by plan.validation.engine.
+ * Documents larger than plan.validation.fail-fast-above-bytes are checked in fail-fast mode,
+ * so an oversized bad payload costs no more than reaching its first violation.
+ */
 @Service
 public class JsonSchemaValidatorService {
 
-    private static final String SCHEMAPATH = "/schema/PlanSchema.json";
-    private final Schema jsonSchema;
+    static final String SCHEMAPATH = "/schema/PlanSchema.json";
 
-    public JsonSchemaValidatorService() {
-        InputStream inputJsonStream = getClass().getResourceAsStream(SCHEMAPATH);
-        JSONObject inputJsonObject = new JSONObject(new JSONTokener(inputJsonStream));
-        jsonSchema = SchemaLoader.load(inputJsonObject);
+    public enum Engine { NETWORKNT, EVERIT }
+
+    private final PlanSchemaEngine engine;
+    private final long failFastAboveBytes;
+
+    public JsonSchemaValidatorService(NetworkntPlanSchemaEngine networkntEngine,
+                                      EveritPlanSchemaEngine everitEngine,
+                                      @Value("${plan.validation.engine:networknt}") Engine engine,
+                                      @Value("${plan.validation.fail-fast-above-bytes:1048576}") long failFastAboveBytes) {
+        this.engine = engine == Engine.EVERIT ? everitEngine : networkntEngine;
+        this.failFastAboveBytes = failFastAboveBytes;
+        System.out.println("Validating plans with the " + engine + " schema engine");
+    }
+
+    /**
+     * @return The schema violations of the plan; empty if it is valid.
+     */
+    public List<SchemaViolation> validate(PlanDocument plan) {
+        return engine.validate(plan, plan.getSourceLength() > failFastAboveBytes);
     }
 
-    public boolean validateJSONSchema(JSONObject data) {
-        try {
-            jsonSchema.validate(data);
-            return true;
-        } catch (ValidationException vex) {
-            vex.printStackTrace();
-            return false;
+    /**
+     * Validates fragments that are about to be added under a field of an existing plan, each against the
+     * precompiled sub-schema of that field only, so the cost follows the size of the fragments and not of the plan.
+     *
+     * @param field        The field the fragments are added to, e.g. linkedPlanServices.
+     * @param fragments    An array of fragments, or a single object.
+     * @param sourceLength Size of the request the fragments came from, for the fail-fast threshold.
+     * @return The violations of all fragments; empty if they are all valid.
+     */
+    public List<SchemaViolation> validateFragments(String field, JsonNode fragments, long sourceLength) {
+        boolean failFast = sourceLength > failFastAboveBytes;
+        if (!fragments.isArray()) {
+            return engine.validateFragment(field, -1, fragments, failFast);
+        }
+        List<SchemaViolation> violations = new ArrayList<>();
+        for (int i = 0; i < fragments.size(); i++) {
+            violations.addAll(engine.validateFragment(field, i, fragments.get(i), failFast));
+            if (failFast && !violations.isEmpty()) {
+                break;
+            }
         }
+        return violations;
     }
 }
-
@@ -0,0 +1,74 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.Jedis;
+
+import java.util.*;
+
+/**
+ * Reads a whole plan graph with the read_plan_graph Lua script, i.e. one EVALSHA round trip
+ * instead of one call per node, and turns the reply into the same map shape the graph walker
+ * in PlanService produces.
+ */
+@Component
+public class LuaPlanGraphReader {
+
+    private final RedisScripts redisScripts;
+    private final ObjectMapper objectMapper;
+
+    public LuaPlanGraphReader(RedisScripts redisScripts, ObjectMapper objectMapper) {
+        this.redisScripts = redisScripts;
+        this.objectMapper = objectMapper;
+    }
+
+    public Map<String, Object> read(Jedis jedis, String key) {
+        Object reply = redisScripts.evalsha(jedis, RedisScripts.READ_PLAN_GRAPH,
+                Collections.singletonList(key), Collections.singletonList(PlanService.EDGE_INDEX_PREFIX));
+        if (reply == null) {
+            return new HashMap<>();
+        }
+
+        try {
+            return toMap(objectMapper.readTree(reply.toString()));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unreadable plan graph reply for " + key, e);
+        }
+    }
+
+    private Map<String, Object> toMap(JsonNode node) {
+        Map<String, Object> resultMap = new HashMap<>();
+
+        Iterator<Map.Entry<String, JsonNode>> fields = node.path("fields").fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (!field.getKey().equalsIgnoreCase("eTag")) {
+                resultMap.put(field.getKey(), PlanService.toStoredValue(field.getValue().asText()));
+            }
+        }
+
+        // Same rule as the graph walker: several members, or linkedPlanServices, means a list
+        Iterator<Map.Entry<String, JsonNode>> edges = node.path("edges").fields();
+        while (edges.hasNext()) {
+            Map.Entry<String, JsonNode> edge = edges.next();
+            JsonNode children = edge.getValue();
+            if (!children.isArray() || children.isEmpty()) {
+                continue;
+            }
+
+            if (children.size() > 1 || edge.getKey().equals("linkedPlanServices")) {
+                List<Object> resultList = new ArrayList<>(children.size());
+                for (JsonNode child : children) {
+                    resultList.add(toMap(child));
+                }
+                resultMap.put(edge.getKey(), resultList);
+            } else {
+                resultMap.put(edge.getKey(), toMap(children.get(0)));
+            }
+        }
+
+        return resultMap;
+    }
+}
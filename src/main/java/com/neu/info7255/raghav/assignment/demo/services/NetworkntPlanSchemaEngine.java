@@ -0,0 +1,89 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neu.info7255.raghav.assignment.demo.model.PlanDocument;
+import com.neu.info7255.raghav.assignment.demo.model.SchemaViolation;
+import com.networknt.schema.JsonSchema;
+import com.networknt.schema.JsonSchemaException;
+import com.networknt.schema.JsonSchemaFactory;
+import com.networknt.schema.SchemaValidatorsConfig;
+import com.networknt.schema.SpecVersionDetector;
+import com.networknt.schema.ValidationMessage;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Validates plans on their Jackson tree with the networknt validator, so no org.json copy is needed.
+ * The schema is compiled once at start-up into a collecting and a fail-fast variant.
+ */
+@Component
+public class NetworkntPlanSchemaEngine implements PlanSchemaEngine {
+
+    private final JsonSchema schema;
+    private final JsonSchema failFastSchema;
+    private final Map<String, JsonSchema> fragmentSchemas = new HashMap<>();
+    private final Map<String, JsonSchema> failFastFragmentSchemas = new HashMap<>();
+
+    public NetworkntPlanSchemaEngine(ObjectMapper objectMapper) {
+        JsonNode schemaNode;
+        try (InputStream in = getClass().getResourceAsStream(JsonSchemaValidatorService.SCHEMAPATH)) {
+            schemaNode = objectMapper.readTree(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read " + JsonSchemaValidatorService.SCHEMAPATH, e);
+        }
+        JsonSchemaFactory factory = JsonSchemaFactory.getInstance(SpecVersionDetector.detect(schemaNode));
+
+        this.schema = compile(factory, schemaNode, false);
+        this.failFastSchema = compile(factory, schemaNode, true);
+        PlanSubSchemas.extract(schemaNode).forEach((field, subSchema) -> {
+            fragmentSchemas.put(field, compile(factory, subSchema, false));
+            failFastFragmentSchemas.put(field, compile(factory, subSchema, true));
+        });
+    }
+
+    private static JsonSchema compile(JsonSchemaFactory factory, JsonNode schemaNode, boolean failFast) {
+        SchemaValidatorsConfig config = new SchemaValidatorsConfig();
+        config.setFailFast(failFast);
+        JsonSchema compiled = factory.getSchema(schemaNode, config);
+        compiled.initializeValidators();
+        return compiled;
+    }
+
+    @Override
+    public List<SchemaViolation> validate(PlanDocument plan, boolean failFast) {
+        return validate(failFast ? failFastSchema : schema, plan.getTree(), "$");
+    }
+
+    @Override
+    public List<SchemaViolation> validateFragment(String field, int index, JsonNode fragment, boolean failFast) {
+        JsonSchema fragmentSchema = (failFast ? failFastFragmentSchemas : fragmentSchemas).get(field);
+        if (fragmentSchema == null) {
+            throw new IllegalArgumentException("No sub-schema for " + field);
+        }
+        return validate(fragmentSchema, fragment, "$." + field + (index < 0 ? "" : "[" + index + "]"));
+    }
+
+    private static List<SchemaViolation> validate(JsonSchema jsonSchema, JsonNode node, String at) {
+        Collection<ValidationMessage> messages;
+        try {
+            messages = jsonSchema.validate(node, node, at);
+        } catch (JsonSchemaException e) {
+            // Fail-fast mode reports the first violation by throwing
+            messages = e.getValidationMessages();
+        }
+        List<SchemaViolation> violations = new ArrayList<>(messages.size());
+        for (ValidationMessage message : messages) {
+            violations.add(new SchemaViolation(message.getPath(), message.getType(), message.getMessage()));
+        }
+        return violations;
+    }
+}
@@ -0,0 +1,202 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neu.info7255.raghav.assignment.demo.model.BulkItemResult;
+import com.neu.info7255.raghav.assignment.demo.model.BulkResult;
+import com.neu.info7255.raghav.assignment.demo.model.PlanDocument;
+import com.neu.info7255.raghav.assignment.demo.model.PlanEvent;
+import com.neu.info7255.raghav.assignment.demo.model.PlanWrite;
+import com.neu.info7255.raghav.assignment.demo.model.SchemaViolation;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads plans from an NDJSON stream, one plan per line.
+ * Lines are read incrementally from the stream and parsed and schema-validated on a bounded worker pool.
+ * Every batch of plan.bulk.batch-size lines is checked for existing plans in one round trip, written through one
+ * Redis pipeline and announced to the indexer with one batched publish.
+ * The result counts the plans created and lists only the lines that failed, with the status POST /plan would
+ * have returned for them, so its size does not grow with the number of plans loaded.
+ */
+@Service
+public class PlanBulkLoader {
+
+    private final PlanService planService;
+    private final JsonSchemaValidatorService jsonSchemaValidatorService;
+    private final PlanEventPublisher planEventPublisher;
+    private final IndexLifecycleManager indexLifecycleManager;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
+    private final ThreadPoolExecutor validationPool;
+
+    public PlanBulkLoader(PlanService planService,
+                          JsonSchemaValidatorService jsonSchemaValidatorService,
+                          PlanEventPublisher planEventPublisher,
+                          IndexLifecycleManager indexLifecycleManager,
+                          ObjectMapper objectMapper,
+                          @Value("${plan.bulk.batch-size:500}") int batchSize,
+                          @Value("${plan.bulk.validation-threads:0}") int validationThreads) {
+        this.planService = planService;
+        this.jsonSchemaValidatorService = jsonSchemaValidatorService;
+        this.planEventPublisher = planEventPublisher;
+        this.indexLifecycleManager = indexLifecycleManager;
+        this.objectMapper = objectMapper;
+        this.batchSize = batchSize;
+
+        int threads = validationThreads > 0 ? validationThreads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        // Bounded queue; when it is full the reading thread validates the line itself, which throttles reading
+        this.validationPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(batchSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "plan-bulk-validation-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    public void stop() {
+        validationPool.shutdownNow();
+    }
+
+    public BulkResult load(InputStream ndjson) throws IOException {
+        long start = System.currentTimeMillis();
+        long created = 0;
+        List<BulkItemResult> failures = new ArrayList<>();
+        List<Future<ParsedLine>> pending = new ArrayList<>(batchSize);
+
+        // The events of this load are indexed while it runs; refreshes and replica writes wait until it is done
+        indexLifecycleManager.beginBulkLoad();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(ndjson, StandardCharsets.UTF_8));
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                long currentLine = lineNumber;
+                String currentText = line;
+                pending.add(validationPool.submit(() -> parseAndValidate(currentLine, currentText)));
+                if (pending.size() == batchSize) {
+                    created += writeBatch(pending, failures);
+                    pending.clear();
+                }
+            }
+            created += writeBatch(pending, failures);
+        } finally {
+            indexLifecycleManager.endBulkLoad();
+        }
+
+        System.out.println("Bulk load finished: " + created + " of " + (created + failures.size()) + " plans created");
+        return new BulkResult(created, failures.size(), System.currentTimeMillis() - start, failures);
+    }
+
+    private ParsedLine parseAndValidate(long line, String text) {
+        PlanDocument plan;
+        try {
+            plan = PlanDocument.parse(objectMapper, text);
+        } catch (JsonProcessingException e) {
+            return new ParsedLine(line, null, null, "Invalid JSON input: " + e.getOriginalMessage(), List.of());
+        }
+        String objectId = plan.getObjectId();
+        List<SchemaViolation> violations = jsonSchemaValidatorService.validate(plan);
+        if (!violations.isEmpty()) {
+            return new ParsedLine(line, null, objectId, "Please check Input Type", violations);
+        }
+        return new ParsedLine(line, plan, objectId, null, List.of());
+    }
+
+    /**
+     * Writes the valid, new plans of the batch and adds a result for every line that failed.
+     *
+     * @return The number of plans created.
+     */
+    private int writeBatch(List<Future<ParsedLine>> pending, List<BulkItemResult> failures) {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+
+        List<ParsedLine> parsed = new ArrayList<>(pending.size());
+        List<String> keys = new ArrayList<>();
+        for (Future<ParsedLine> future : pending) {
+            ParsedLine parsedLine = awaitValidation(future);
+            parsed.add(parsedLine);
+            if (parsedLine.plan() != null) {
+                keys.add(parsedLine.plan().getObjectKey());
+            }
+        }
+        List<Boolean> existing = keys.isEmpty() ? List.of() : planService.keysExist(keys);
+
+        List<PlanDocument> toSave = new ArrayList<>();
+        Set<String> seenKeys = new HashSet<>();
+        int keyIndex = 0;
+        for (ParsedLine parsedLine : parsed) {
+            if (parsedLine.plan() == null) {
+                failures.add(new BulkItemResult(parsedLine.line(), parsedLine.objectId(), 400, parsedLine.error(), parsedLine.violations()));
+                continue;
+            }
+            String key = keys.get(keyIndex);
+            boolean exists = existing.get(keyIndex++);
+            if (exists || !seenKeys.add(key)) {
+                failures.add(new BulkItemResult(parsedLine.line(), parsedLine.objectId(), 409, "Already existing plan", List.of()));
+                continue;
+            }
+            toSave.add(parsedLine.plan());
+        }
+
+        if (!toSave.isEmpty()) {
+            List<PlanWrite> writes = planService.savePlans(toSave);
+            List<PlanEvent> events = new ArrayList<>(writes.size());
+            for (int i = 0; i < writes.size(); i++) {
+                events.add(new PlanEvent("SAVE", toSave.get(i).getObjectId(), writes.get(i).revision()));
+            }
+
+            try {
+                planEventPublisher.publishBatch(events);
+            } catch (RuntimeException e) {
+                // The plans are stored; only their indexing is missing
+                System.out.println("Could not publish SAVE events for " + toSave.size() + " bulk-loaded plans: " + e.getMessage());
+            }
+        }
+        return toSave.size();
+    }
+
+    private static ParsedLine awaitValidation(Future<ParsedLine> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Bulk load interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Plan validation failed", e.getCause());
+        }
+    }
+
+    /**
+     * A line after parsing and validation: the plan when it is valid, otherwise the error.
+     */
+    private record ParsedLine(long line, PlanDocument plan, Object objectId, String error, List<SchemaViolation> violations) {
+    }
+}
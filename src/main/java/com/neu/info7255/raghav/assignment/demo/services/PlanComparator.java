@@ -0,0 +1,62 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Structural comparison of reconstructed plans. Lists come out of Redis sets, so their order
+ * is not meaningful: they are compared after sorting their elements by objectId.
+ * Used to cross-check the plan readers and to verify snapshots against the graph.
+ */
+final class PlanComparator {
+
+    private PlanComparator() {
+    }
+
+    static boolean equivalent(Object left, Object right) {
+        if (left instanceof Map<?, ?> leftMap && right instanceof Map<?, ?> rightMap) {
+            if (!leftMap.keySet().equals(rightMap.keySet())) {
+                return false;
+            }
+            for (Map.Entry<?, ?> entry : leftMap.entrySet()) {
+                if (!equivalent(entry.getValue(), rightMap.get(entry.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        if (left instanceof List<?> leftList && right instanceof List<?> rightList) {
+            if (leftList.size() != rightList.size()) {
+                return false;
+            }
+            List<?> sortedLeft = sortByObjectId(leftList);
+            List<?> sortedRight = sortByObjectId(rightList);
+            for (int i = 0; i < sortedLeft.size(); i++) {
+                if (!equivalent(sortedLeft.get(i), sortedRight.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Hash fields are stored as strings, so scalars are compared by their string form
+        return Objects.equals(String.valueOf(left), String.valueOf(right));
+    }
+
+    private static List<?> sortByObjectId(List<?> list) {
+        List<Object> sorted = new ArrayList<>(list);
+        sorted.sort(Comparator.comparing(PlanComparator::objectId));
+        return sorted;
+    }
+
+    private static String objectId(Object value) {
+        if (value instanceof Map<?, ?> map && map.get("objectId") != null) {
+            return map.get("objectId").toString();
+        }
+        return String.valueOf(value);
+    }
+}
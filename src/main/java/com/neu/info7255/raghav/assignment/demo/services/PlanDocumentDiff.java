@@ -0,0 +1,49 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import com.google.common.hash.Hashing;
+import com.neu.info7255.raghav.assignment.demo.services.PlanDocumentFlattener.IndexedDocument;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Compares the documents of a plan with the digests of the documents last sent to the index, keyed by objectId,
+ * so that only what changed is written: documents that are new or whose fields differ are indexed, and documents
+ * the plan no longer has are deleted.
+ *
+ * @param changed The documents to index.
+ * @param removed The ids of the documents to delete.
+ * @param digests The digest of every document of the plan, to keep for the next comparison.
+ */
+record PlanDocumentDiff(List<IndexedDocument> changed, List<String> removed, Map<String, String> digests) {
+
+    static PlanDocumentDiff between(Map<String, String> indexed, List<IndexedDocument> documents) {
+        List<IndexedDocument> changed = new ArrayList<>();
+        Map<String, String> digests = new LinkedHashMap<>();
+        for (IndexedDocument document : documents) {
+            String digest = digest(document.source());
+            digests.put(document.id(), digest);
+            if (!digest.equals(indexed.get(document.id()))) {
+                changed.add(document);
+            }
+        }
+
+        Set<String> removed = new HashSet<>(indexed.keySet());
+        removed.removeAll(digests.keySet());
+        return new PlanDocumentDiff(changed, new ArrayList<>(removed), digests);
+    }
+
+    /**
+     * Hashes the fields of a document in key order, so equal sources give equal digests whatever order
+     * the plan listed its fields in. The plan_join value is built in a fixed order by PlanDocumentFlattener.
+     */
+    static String digest(Map<String, Object> source) {
+        return Hashing.murmur3_128().hashString(new TreeMap<>(source).toString(), StandardCharsets.UTF_8).toString();
+    }
+}
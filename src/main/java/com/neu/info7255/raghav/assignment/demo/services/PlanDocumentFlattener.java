@@ -0,0 +1,79 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns a plan into the documents of the plan index: one per object, holding the object's scalar fields and a
+ * plan_join field that names its relation and its parent. Every document of a plan is routed by the root plan id,
+ * because a join needs the whole hierarchy on one shard; routing a grandchild by its own parent would put it on
+ * another shard as soon as the index has more than one.
+ */
+public final class PlanDocumentFlattener {
+
+    /**
+     * A document to index or delete.
+     *
+     * @param id      The object id, used as document id.
+     * @param routing The id of the root plan.
+     * @param source  The scalar fields and plan_join.
+     */
+    public record IndexedDocument(String id, String routing, Map<String, Object> source) {
+    }
+
+    private PlanDocumentFlattener() {
+    }
+
+    public static List<IndexedDocument> flatten(JSONObject plan) {
+        List<IndexedDocument> documents = new ArrayList<>();
+        String planId = plan.get("objectId").toString();
+        flatten(plan, PlanMappingGenerator.ROOT_RELATION, null, planId, documents);
+        return documents;
+    }
+
+    private static void flatten(JSONObject object, String relation, String parentId, String planId,
+                                List<IndexedDocument> documents) {
+        String objectId = object.get("objectId").toString();
+        Map<String, Object> source = new LinkedHashMap<>();
+        Iterator<String> keys = object.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = object.get(key);
+            if (value instanceof JSONObject) {
+                flatten((JSONObject) value, key, objectId, planId, documents);
+            } else if (value instanceof JSONArray) {
+                flattenList((JSONArray) value, key, objectId, planId, documents);
+            } else {
+                source.put(key, value);
+            }
+        }
+
+        if (parentId == null) {
+            source.put(PlanMappingGenerator.JOIN_FIELD, relation);
+        } else {
+            Map<String, Object> join = new LinkedHashMap<>();
+            join.put("name", relation);
+            join.put("parent", parentId);
+            source.put(PlanMappingGenerator.JOIN_FIELD, join);
+        }
+        documents.add(new IndexedDocument(objectId, planId, source));
+    }
+
+    private static void flattenList(JSONArray array, String relation, String parentId, String planId,
+                                    List<IndexedDocument> documents) {
+        for (int i = 0; i < array.length(); i++) {
+            Object value = array.get(i);
+            if (value instanceof JSONArray) {
+                flattenList((JSONArray) value, relation, parentId, planId, documents);
+            } else if (value instanceof JSONObject) {
+                flatten((JSONObject) value, relation, parentId, planId, documents);
+            }
+        }
+    }
+}
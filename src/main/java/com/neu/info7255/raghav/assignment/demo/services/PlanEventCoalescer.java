@@ -0,0 +1,79 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import com.neu.info7255.raghav.assignment.demo.model.PlanEvent;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps only the newest event of each plan. Since IndexingListener reads the plan from Redis, indexing the
+ * newest revision covers every older SAVE or UPDATE of the same plan, and a newer DELETE cancels them.
+ * A DELETE followed by a SAVE of the same plan is kept as a SAVE that deletes the old documents first,
+ * so children the re-created plan no longer has do not stay in the index. The messages of the events dropped
+ * are acked together with the event kept.
+ */
+final class PlanEventCoalescer {
+
+    /**
+     * @param event           The newest event of the plan.
+     * @param deleteFirst     Whether a DELETE was coalesced into an upsert, so the plan's documents must be removed first.
+     * @param acknowledgement Acks the messages of the plan's events once the event is indexed, or null.
+     */
+    record Pending(PlanEvent event, boolean deleteFirst, DeliveryAcknowledgement acknowledgement) {
+
+        Pending(PlanEvent event, boolean deleteFirst) {
+            this(event, deleteFirst, null);
+        }
+    }
+
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+
+    PlanEvent add(PlanEvent event) {
+        return add(event, null);
+    }
+
+    /**
+     * @param acknowledgement Acks the message of the event, or null.
+     * @return The event that was dropped in favour of a newer one of the same plan, or null.
+     */
+    synchronized PlanEvent add(PlanEvent event, DeliveryAcknowledgement acknowledgement) {
+        Pending existing = pending.get(event.planId());
+        if (existing == null) {
+            pending.put(event.planId(), new Pending(event, false, acknowledgement));
+            return null;
+        }
+
+        // Equal revisions are redeliveries of the same event; the one already pending stays
+        boolean newer = event.revision() > existing.event().revision();
+        PlanEvent kept = newer ? event : existing.event();
+        PlanEvent dropped = newer ? existing.event() : event;
+        boolean deleteFirst = !isDelete(kept) && (existing.deleteFirst() || isDelete(dropped));
+        DeliveryAcknowledgement acknowledgements = existing.acknowledgement();
+        if (acknowledgements == null) {
+            acknowledgements = acknowledgement;
+        } else if (acknowledgement != null) {
+            acknowledgements.include(acknowledgement);
+        }
+        pending.put(event.planId(), new Pending(kept, deleteFirst, acknowledgements));
+        return dropped;
+    }
+
+    /**
+     * Removes and returns the pending events, one per plan, in the order their plans first appeared.
+     */
+    synchronized List<Pending> drain() {
+        List<Pending> drained = new ArrayList<>(pending.values());
+        pending.clear();
+        return drained;
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+
+    private static boolean isDelete(PlanEvent event) {
+        return "DELETE".equals(event.op());
+    }
+}
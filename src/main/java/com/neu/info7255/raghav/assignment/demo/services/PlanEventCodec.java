@@ -0,0 +1,48 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.neu.info7255.raghav.assignment.demo.model.PlanEvent;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Encodes indexing events as Smile, Jackson's binary JSON. An event is a few dozen bytes on the wire,
+ * where a Java-serialized map costs several hundred before it carries any data.
+ */
+@Component
+public class PlanEventCodec {
+
+    public static final String CONTENT_TYPE = "application/x-jackson-smile";
+
+    private final ObjectMapper smileMapper = new SmileMapper();
+
+    public Message encode(PlanEvent event) {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(CONTENT_TYPE);
+        try {
+            return new Message(smileMapper.writeValueAsBytes(event), properties);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to encode plan event", e);
+        }
+    }
+
+    /**
+     * @return true if the message was written by {@link #encode}; older messages are Java-serialized maps.
+     */
+    public boolean canDecode(Message message) {
+        return CONTENT_TYPE.equals(message.getMessageProperties().getContentType());
+    }
+
+    public PlanEvent decode(Message message) {
+        try {
+            return smileMapper.readValue(message.getBody(), PlanEvent.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to decode plan event", e);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import com.neu.info7255.raghav.assignment.demo.config.RabbitMQConfiguration;
+import com.neu.info7255.raghav.assignment.demo.model.PlanEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.resps.StreamEntry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes plan change events for IndexingListener. An event names the operation, the plan and the plan's
+ * revision after the change; the listener reads the plan itself from Redis, so events stay a few dozen bytes
+ * however large the plan is. They are encoded by {@link PlanEventCodec}. Events are routed to the
+ * indexing partition of their plan, so all events of one plan go through the same queue, in order.
+ * <p>
+ * publish() only puts the event into a bounded buffer, so the request thread never waits for the broker.
+ * A background thread sends the buffer in batches over one channel and waits for the broker to confirm each batch.
+ * Events the broker did not confirm go to the Redis stream outbox:plan-events and are sent from there, oldest
+ * first, every plan.events.outbox-retry-interval until the broker takes them. While the outbox holds events,
+ * new events are appended behind them, so a plan's events keep their order. When the buffer is full, the event
+ * is written to the outbox directly; it can then overtake older events of the same plan still in the buffer.
+ */
+@Service
+public class PlanEventPublisher {
+
+    public static final String OUTBOX_KEY = "outbox:plan-events";
+    private static final long POLL_MILLIS = 100;
+
+    private final RabbitTemplate template;
+    private final PlanEventCodec codec;
+    private final JedisPool jedisPool;
+    private final int partitions;
+    private final int batchSize;
+    private final Duration confirmTimeout;
+    private final Duration outboxRetryInterval;
+    private final BlockingQueue<PlanEvent> buffer;
+    private final Counter publishedCounter;
+    private final Counter outboxedCounter;
+    private final Counter lostCounter;
+
+    private final Object outboxLock = new Object();
+    private volatile boolean outboxPending;
+    private long nextOutboxAttempt;
+    private volatile boolean running;
+    private Thread worker;
+
+    public PlanEventPublisher(RabbitTemplate template,
+                              PlanEventCodec codec,
+                              JedisPool jedisPool,
+                              MeterRegistry meterRegistry,
+                              @Value("${plan.indexing.partitions:4}") int partitions,
+                              @Value("${plan.events.buffer-capacity:10000}") int bufferCapacity,
+                              @Value("${plan.events.batch-size:100}") int batchSize,
+                              @Value("${plan.events.confirm-timeout:5s}") Duration confirmTimeout,
+                              @Value("${plan.events.outbox-retry-interval:5s}") Duration outboxRetryInterval) {
+        this.template = template;
+        this.codec = codec;
+        this.jedisPool = jedisPool;
+        this.partitions = partitions;
+        this.batchSize = batchSize;
+        this.confirmTimeout = confirmTimeout;
+        this.outboxRetryInterval = outboxRetryInterval;
+        this.buffer = new ArrayBlockingQueue<>(bufferCapacity);
+
+        this.publishedCounter = meterRegistry.counter("plan.events.published");
+        this.outboxedCounter = meterRegistry.counter("plan.events.outboxed");
+        this.lostCounter = meterRegistry.counter("plan.events.lost");
+        Gauge.builder("plan.events.buffered", buffer, BlockingQueue::size)
+                .description("Events waiting to be sent to the broker")
+                .register(meterRegistry);
+        Gauge.builder("plan.events.outbox", this, PlanEventPublisher::outboxLength)
+                .description("Events parked in the Redis outbox")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        // Events left in the outbox by an earlier run go out before anything new
+        outboxPending = outboxLength() != 0;
+        running = true;
+        worker = new Thread(this::sendLoop, "plan-event-publisher");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stops taking events and sends what is still buffered; whatever the broker does not confirm is kept in the outbox.
+     */
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        worker.join(confirmTimeout.toMillis() + 2 * POLL_MILLIS);
+    }
+
+    /**
+     * @param operation SAVE, UPDATE or DELETE.
+     * @param planId    The objectId of the changed plan.
+     * @param revision  The plan's revision after the change, as returned by PlanService.
+     */
+    public void publish(String operation, String planId, long revision) {
+        enqueue(new PlanEvent(operation, planId, revision));
+    }
+
+    public void publishBatch(List<PlanEvent> events) {
+        events.forEach(this::enqueue);
+    }
+
+    private void enqueue(PlanEvent event) {
+        if (!buffer.offer(event)) {
+            // The broker cannot keep up; park the event instead of holding up the request
+            try {
+                appendToOutbox(List.of(event));
+            } catch (JedisException e) {
+                // The plan is already stored; failing the request now would report an error for a committed write
+                System.out.println("Could not write plan event " + event + " to the outbox: " + e.getMessage());
+                lostCounter.increment();
+            }
+        }
+    }
+
+    private void sendLoop() {
+        List<PlanEvent> batch = new ArrayList<>(batchSize);
+        while (running || !buffer.isEmpty()) {
+            try {
+                PlanEvent first = buffer.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    buffer.drainTo(batch, batchSize - 1);
+                }
+                if (outboxPending) {
+                    appendToOutbox(batch);
+                    drainOutbox();
+                } else if (!batch.isEmpty() && !send(batch)) {
+                    appendToOutbox(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            } catch (JedisException e) {
+                System.out.println("Could not write " + batch.size() + " plan events to the outbox: " + e.getMessage());
+                lostCounter.increment(batch.size());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Sends the events over one channel and waits until the broker has confirmed all of them.
+     *
+     * @return false if the broker could not be reached or did not confirm every event in time.
+     */
+    private boolean send(List<PlanEvent> events) {
+        try {
+            template.invoke(operations -> {
+                for (PlanEvent event : events) {
+                    operations.send(RabbitMQConfiguration.topicExchangeName, routingKey(event.planId()), message(event));
+                }
+                operations.waitForConfirmsOrDie(confirmTimeout.toMillis());
+                return null;
+            });
+        } catch (AmqpException e) {
+            System.out.println("Could not publish " + events.size() + " plan events: " + e.getMessage());
+            return false;
+        }
+        publishedCounter.increment(events.size());
+        return true;
+    }
+
+    private void appendToOutbox(List<PlanEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        synchronized (outboxLock) {
+            try (Jedis jedis = jedisPool.getResource()) {
+                for (PlanEvent event : events) {
+                    Map<String, String> fields = new HashMap<>();
+                    fields.put("op", event.op());
+                    fields.put("planId", event.planId());
+                    fields.put("revision", String.valueOf(event.revision()));
+                    jedis.xadd(OUTBOX_KEY, StreamEntryID.NEW_ENTRY, fields);
+                }
+            }
+            outboxPending = true;
+        }
+        outboxedCounter.increment(events.size());
+    }
+
+    /**
+     * Sends the outbox oldest first, removing each batch once the broker confirmed it. Stops at the first
+     * batch the broker does not take and tries again after plan.events.outbox-retry-interval.
+     */
+    private void drainOutbox() {
+        long now = System.currentTimeMillis();
+        if (now < nextOutboxAttempt) {
+            return;
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            List<StreamEntry> entries;
+            while (!(entries = jedis.xrange(OUTBOX_KEY, "-", "+", batchSize)).isEmpty()) {
+                List<PlanEvent> events = new ArrayList<>(entries.size());
+                StreamEntryID[] ids = new StreamEntryID[entries.size()];
+                for (int i = 0; i < entries.size(); i++) {
+                    Map<String, String> fields = entries.get(i).getFields();
+                    events.add(new PlanEvent(fields.get("op"), fields.get("planId"), Long.parseLong(fields.get("revision"))));
+                    ids[i] = entries.get(i).getID();
+                }
+                if (!send(events)) {
+                    nextOutboxAttempt = now + outboxRetryInterval.toMillis();
+                    return;
+                }
+                jedis.xdel(OUTBOX_KEY, ids);
+            }
+            boolean drained;
+            synchronized (outboxLock) {
+                outboxPending = jedis.xlen(OUTBOX_KEY) != 0;
+                drained = !outboxPending;
+            }
+            if (drained) {
+                System.out.println("Plan event outbox drained");
+            }
+        }
+    }
+
+    private double outboxLength() {
+        try (Jedis jedis = jedisPool.getResource()) {
+            return jedis.xlen(OUTBOX_KEY);
+        } catch (JedisException e) {
+            return Double.NaN;
+        }
+    }
+
+    private String routingKey(String planId) {
+        return RabbitMQConfiguration.partitionQueue(RabbitMQConfiguration.partitionOf(planId, partitions));
+    }
+
+    /**
+     * Encodes the event and stamps the publish time, from which IndexingListener measures how far indexing lags behind.
+     */
+    private Message message(PlanEvent event) {
+        Message message = codec.encode(event);
+        message.getMessageProperties().setTimestamp(new Date());
+        return message;
+    }
+}
@@ -0,0 +1,46 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actuator endpoint /actuator/planindex: GET shows which index the aliases point to,
+ * POST builds the next index version and swaps the aliases over to it.
+ */
+@Component
+@Endpoint(id = "planindex")
+public class PlanIndexEndpoint {
+
+    private final IndexLifecycleManager indexLifecycleManager;
+
+    public PlanIndexEndpoint(IndexLifecycleManager indexLifecycleManager) {
+        this.indexLifecycleManager = indexLifecycleManager;
+    }
+
+    @ReadOperation
+    public Map<String, Object> state() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("readAlias", indexLifecycleManager.getReadAlias());
+        result.put("writeAlias", indexLifecycleManager.getWriteAlias());
+        result.put("writeIndex", indexLifecycleManager.getWriteIndex());
+        return result;
+    }
+
+    @WriteOperation
+    public Map<String, Object> reindex() throws IOException {
+        BulkByScrollResponse response = indexLifecycleManager.reindex();
+        Map<String, Object> result = state();
+        result.put("copied", response.getCreated());
+        result.put("conflicts", response.getVersionConflicts());
+        result.put("failures", response.getBulkFailures().size());
+        result.put("tookMillis", response.getTook().millis());
+        return result;
+    }
+}
@@ -0,0 +1,85 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One-time migration that builds the plan registry and the per-object edge indexes
+ * for data written before PlanService maintained them. It walks the keyspace with SCAN,
+ * so Redis is never blocked the way KEYS would block it.
+ * Enable with plan.index.migration.enabled=true for a single start-up, then switch it off again.
+ */
+@Component
+@ConditionalOnProperty(name = "plan.index.migration.enabled", havingValue = "true")
+public class PlanIndexMigration implements ApplicationRunner {
+
+    private static final int SCAN_BATCH_SIZE = 1000;
+
+    private final JedisPool jedisPool;
+
+    public PlanIndexMigration(JedisPool jedisPool) {
+        this.jedisPool = jedisPool;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        System.out.println("Building plan registry and edge indexes from existing keys");
+
+        int plans = 0;
+        int edges = 0;
+        ScanParams scanParams = new ScanParams().match("*:*").count(SCAN_BATCH_SIZE);
+        String cursor = ScanParams.SCAN_POINTER_START;
+
+        try (Jedis jedis = jedisPool.getResource()) {
+            do {
+                ScanResult<String> page = jedis.scan(cursor, scanParams);
+                cursor = page.getCursor();
+
+                List<String> keys = new ArrayList<>();
+                for (String key : page.getResult()) {
+                    if (!key.startsWith("index:")) {
+                        keys.add(key);
+                    }
+                }
+
+                // Resolve the type of every key on the page in one round trip
+                Pipeline typePipeline = jedis.pipelined();
+                List<Response<String>> types = new ArrayList<>();
+                for (String key : keys) {
+                    types.add(typePipeline.type(key));
+                }
+                typePipeline.sync();
+
+                Pipeline writePipeline = jedis.pipelined();
+                for (int i = 0; i < keys.size(); i++) {
+                    String key = keys.get(i);
+                    String type = types.get(i).get();
+                    int separators = key.length() - key.replace(":", "").length();
+
+                    if (separators == 1 && "hash".equals(type) && key.startsWith("plan:")) {
+                        writePipeline.zadd(PlanService.PLAN_REGISTRY_KEY, 0, key);
+                        plans++;
+                    } else if (separators == 2 && "set".equals(type)) {
+                        String ownerKey = key.substring(0, key.lastIndexOf(':'));
+                        writePipeline.sadd(PlanService.edgeIndexKey(ownerKey), key);
+                        edges++;
+                    }
+                }
+                writePipeline.sync();
+            } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        }
+
+        System.out.println("Plan index migration finished: " + plans + " plans, " + edges + " edges indexed");
+    }
+}
@@ -0,0 +1,105 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Builds the Elasticsearch mapping of the plan index from PlanSchema.json.
+ * <p>
+ * IndexingListener indexes every object of a plan as its own document holding only its scalar fields, so the
+ * mapping has one flat field per scalar property of any node type, and a plan_join field whose relations follow
+ * the nesting of the schema. Strings become keyword, integers long and numbers double; PlanMappingOverrides.json
+ * then changes single fields (text instead of keyword, a date format, index: false, doc_values, norms).
+ * Fields that are not in the schema are kept in _source but not indexed.
+ */
+public final class PlanMappingGenerator {
+
+    public static final String OVERRIDESPATH = "/schema/PlanMappingOverrides.json";
+    public static final String JOIN_FIELD = "plan_join";
+    public static final String ROOT_RELATION = "plan";
+
+    private PlanMappingGenerator() {
+    }
+
+    /**
+     * @param schema    PlanSchema.json
+     * @param overrides Mapping parameters per field, as {"properties": {"field": {...}}}.
+     * @return The mapping, ready for a create index request.
+     * @throws IllegalStateException    If two node types declare the same field with different types.
+     * @throws IllegalArgumentException If an override names a field the schema does not have.
+     */
+    public static ObjectNode generate(JsonNode schema, JsonNode overrides) {
+        ObjectNode properties = JsonNodeFactory.instance.objectNode();
+        ObjectNode relations = JsonNodeFactory.instance.objectNode();
+        collect(schema, ROOT_RELATION, properties, relations);
+
+        Iterator<Map.Entry<String, JsonNode>> fieldOverrides = overrides.path("properties").fields();
+        while (fieldOverrides.hasNext()) {
+            Map.Entry<String, JsonNode> override = fieldOverrides.next();
+            ObjectNode field = (ObjectNode) properties.get(override.getKey());
+            if (field == null) {
+                throw new IllegalArgumentException("Mapping override for unknown field " + override.getKey());
+            }
+            field.setAll((ObjectNode) override.getValue());
+        }
+
+        ObjectNode join = properties.putObject(JOIN_FIELD);
+        join.put("type", "join");
+        join.put("eager_global_ordinals", true);
+        join.set("relations", relations);
+
+        ObjectNode mapping = JsonNodeFactory.instance.objectNode();
+        mapping.put("dynamic", false);
+        mapping.set("properties", properties);
+        return mapping;
+    }
+
+    private static void collect(JsonNode schema, String relation, ObjectNode properties, ObjectNode relations) {
+        Iterator<Map.Entry<String, JsonNode>> schemaProperties = schema.path("properties").fields();
+        while (schemaProperties.hasNext()) {
+            Map.Entry<String, JsonNode> property = schemaProperties.next();
+            String name = property.getKey();
+            JsonNode propertySchema = property.getValue();
+            String type = propertySchema.path("type").asText();
+
+            if ("array".equals(type)) {
+                JsonNode items = propertySchema.path("items");
+                propertySchema = items.isArray() ? items.path(0) : items;
+                type = propertySchema.path("type").asText();
+            }
+
+            if ("object".equals(type)) {
+                ArrayNode children = relations.has(relation) ? (ArrayNode) relations.get(relation) : relations.putArray(relation);
+                children.add(name);
+                collect(propertySchema, name, properties, relations);
+                continue;
+            }
+
+            String fieldType = fieldType(type);
+            JsonNode existing = properties.get(name);
+            if (existing == null) {
+                properties.putObject(name).put("type", fieldType);
+            } else if (!existing.path("type").asText().equals(fieldType)) {
+                throw new IllegalStateException("Field " + name + " is both " + existing.path("type").asText() + " and " + fieldType);
+            }
+        }
+    }
+
+    private static String fieldType(String schemaType) {
+        switch (schemaType) {
+            case "integer":
+                return "long";
+            case "number":
+                return "double";
+            case "boolean":
+                return "boolean";
+            default:
+                return "keyword";
+        }
+    }
+}
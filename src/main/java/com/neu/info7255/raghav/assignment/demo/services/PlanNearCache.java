@@ -0,0 +1,180 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Bounded in-process cache in front of plan reads.
+ * <p>
+ * Plans are cached under "planKey@eTag", so a plan entry can only be served for the eTag it
+ * was read with. The current eTag of each plan is cached separately and dropped whenever a
+ * write or delete on any instance publishes the plan key on {@link #INVALIDATION_CHANNEL}.
+ * The eTag entries also expire after a short time, which bounds staleness if an invalidation
+ * message is ever missed. Both caches use Caffeine's size-based W-TinyLFU eviction.
+ */
+@Component
+public class PlanNearCache {
+
+    public static final String INVALIDATION_CHANNEL = "plan-invalidation";
+
+    private static final long RESUBSCRIBE_DELAY_MILLIS = 1000;
+
+    private final JedisPool jedisPool;
+    private final boolean enabled;
+
+    private final Cache<String, String> eTags;
+    private final Cache<String, Map<String, Object>> plans;
+
+    private final InvalidationSubscriber subscriber = new InvalidationSubscriber();
+    private volatile boolean running;
+    private Thread subscriberThread;
+
+    public PlanNearCache(JedisPool jedisPool,
+                         MeterRegistry meterRegistry,
+                         @Value("${plan.cache.enabled:false}") boolean enabled,
+                         @Value("${plan.cache.maximum-size:10000}") long maximumSize,
+                         @Value("${plan.cache.etag-ttl:60s}") Duration eTagTtl) {
+        this.jedisPool = jedisPool;
+        this.enabled = enabled;
+        this.eTags = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(eTagTtl)
+                .recordStats()
+                .build();
+        this.plans = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, eTags, "plan.etags");
+        CaffeineCacheMetrics.monitor(meterRegistry, plans, "plans");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getETag(String planKey, Supplier<String> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        return eTags.get(planKey, key -> loader.get());
+    }
+
+    /**
+     * Returns a private copy of the plan cached for the given eTag, loading it on a miss.
+     * A freshly loaded plan is only cached if the plan's eTag is still the one it was requested
+     * with, i.e. no write slipped in between reading the eTag and reading the plan.
+     */
+    public Map<String, Object> getPlan(String planKey, String eTag,
+                                       Supplier<Map<String, Object>> loader, Supplier<String> currentETag) {
+        if (!enabled || eTag == null) {
+            return loader.get();
+        }
+
+        String cacheKey = planKey + "@" + eTag;
+        Map<String, Object> plan = plans.getIfPresent(cacheKey);
+        if (plan == null) {
+            plan = loader.get();
+            if (!eTag.equals(currentETag.get())) {
+                return plan;
+            }
+            plans.put(cacheKey, plan);
+        }
+        return deepCopy(plan);
+    }
+
+    public void invalidate(String planKey) {
+        eTags.invalidate(planKey);
+    }
+
+    @PostConstruct
+    void startSubscriber() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        subscriberThread = new Thread(this::subscribeLoop, "plan-cache-invalidation");
+        subscriberThread.setDaemon(true);
+        subscriberThread.start();
+    }
+
+    @PreDestroy
+    void stopSubscriber() {
+        running = false;
+        if (subscriber.isSubscribed()) {
+            subscriber.unsubscribe();
+        }
+    }
+
+    private void subscribeLoop() {
+        while (running) {
+            try (Jedis jedis = jedisPool.getResource()) {
+                jedis.subscribe(subscriber, INVALIDATION_CHANNEL);
+            } catch (Exception e) {
+                System.out.println("Plan cache invalidation subscription lost: " + e.getMessage());
+            }
+            // Anything published while we were not subscribed is lost, so start from scratch
+            eTags.invalidateAll();
+            if (running) {
+                sleepBeforeResubscribe();
+            }
+        }
+    }
+
+    private void sleepBeforeResubscribe() {
+        try {
+            Thread.sleep(RESUBSCRIBE_DELAY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T deepCopy(T value) {
+        if (value instanceof Map<?, ?> map) {
+            Map<String, Object> copy = new HashMap<>();
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                copy.put(entry.getKey().toString(), deepCopy(entry.getValue()));
+            }
+            return (T) copy;
+        }
+        if (value instanceof List<?> list) {
+            List<Object> copy = new ArrayList<>(list.size());
+            for (Object element : list) {
+                copy.add(deepCopy(element));
+            }
+            return (T) copy;
+        }
+        return value;
+    }
+
+    private class InvalidationSubscriber extends JedisPubSub {
+
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            eTags.invalidateAll();
+        }
+
+        @Override
+        public void onMessage(String channel, String planKey) {
+            invalidate(planKey);
+        }
+    }
+}
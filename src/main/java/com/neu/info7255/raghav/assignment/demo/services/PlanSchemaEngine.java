@@ -0,0 +1,33 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.neu.info7255.raghav.assignment.demo.model.PlanDocument;
+import com.neu.info7255.raghav.assignment.demo.model.SchemaViolation;
+
+import java.util.List;
+
+/**
+ * A JSON schema implementation checking plans against the precompiled PlanSchema.json.
+ */
+public interface PlanSchemaEngine {
+
+    /**
+     * @param plan     The plan to check.
+     * @param failFast Stop at the first violation instead of collecting all of them.
+     * @return The violations found; empty if the plan is valid.
+     */
+    List<SchemaViolation> validate(PlanDocument plan, boolean failFast);
+
+    /**
+     * Validates one fragment against the precompiled sub-schema of the field it is added to.
+     * Violation paths are reported relative to the plan, e.g. under linkedPlanServices[index].
+     *
+     * @param field    The field the fragment hangs off, e.g. linkedPlanServices.
+     * @param index    The fragment's position in the array, or -1 for a single object.
+     * @param fragment The fragment to check.
+     * @param failFast Stop at the first violation instead of collecting all of them.
+     * @return The violations found; empty if the fragment is valid.
+     * @throws IllegalArgumentException If the schema has no sub-schema for the field.
+     */
+    List<SchemaViolation> validateFragment(String field, int index, JsonNode fragment, boolean failFast);
+}
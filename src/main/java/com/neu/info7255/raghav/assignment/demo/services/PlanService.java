@@ -1,195 +1,655 @@
 package com.neu.info7255.raghav.assignment.demo.services;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.neu.info7255.raghav.assignment.demo.model.PlanDeletion;
+import com.neu.info7255.raghav.assignment.demo.model.PlanDocument;
+import com.neu.info7255.raghav.assignment.demo.model.PlanPage;
+import com.neu.info7255.raghav.assignment.demo.model.PlanWrite;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import redis.clients.jedis.Jedis;
-
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.commands.PipelineCommands;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Service
 public class PlanService {
 
+    /**
+     * Sorted set holding the keys of all root plans. Every member has score 0 so the set is
+     * ordered lexicographically, which gives stable cursors for ZRANGEBYLEX paging.
+     */
+    public static final String PLAN_REGISTRY_KEY = "index:plans";
 
-    private Jedis jedis;
-    private ETagService eTagService;
+    /**
+     * Prefix of the per-object set listing the child-edge keys ("objectType:objectId:field") of that object.
+     */
+    public static final String EDGE_INDEX_PREFIX = "index:edges:";
 
-    public PlanService(Jedis jedis, ETagService eTagService) {
-        this.jedis = jedis;
+    /**
+     * Prefix of the key holding the serialized whole-document snapshot of a plan.
+     */
+    public static final String SNAPSHOT_PREFIX = "snapshot:";
+
+    /**
+     * Prefix of the counter incremented with every write of a plan. It is not removed when the plan is deleted,
+     * so revisions keep growing when a plan is deleted and created again.
+     */
+    public static final String REVISION_PREFIX = "revision:";
+
+    /**
+     * How whole plans are read back: with the per-node graph walker, with the server-side
+     * Lua reader, or with both, comparing the results and serving the walker's.
+     */
+    public enum ReadMode { WALKER, LUA, COMPARE }
+
+    private static final int MAX_WRITE_ATTEMPTS = 5;
+
+    private final JedisPool jedisPool;
+    private final ETagService eTagService;
+    private final LuaPlanGraphReader luaPlanGraphReader;
+    private final RedisScripts redisScripts;
+    private final PlanSnapshotCodec snapshotCodec;
+    private final PlanNearCache planNearCache;
+    private final ObjectMapper objectMapper;
+    private final ReadMode readMode;
+    private final boolean snapshotEnabled;
+
+    private final Timer walkerReadTimer;
+    private final Timer luaReadTimer;
+    private final Counter readMismatchCounter;
+
+    public PlanService(JedisPool jedisPool,
+                       ETagService eTagService,
+                       LuaPlanGraphReader luaPlanGraphReader,
+                       RedisScripts redisScripts,
+                       PlanSnapshotCodec snapshotCodec,
+                       PlanNearCache planNearCache,
+                       ObjectMapper objectMapper,
+                       MeterRegistry meterRegistry,
+                       @Value("${plan.read.mode:lua}") ReadMode readMode,
+                       @Value("${plan.storage.snapshot.enabled:false}") boolean snapshotEnabled) {
+        this.jedisPool = jedisPool;
         this.eTagService = eTagService;
+        this.luaPlanGraphReader = luaPlanGraphReader;
+        this.redisScripts = redisScripts;
+        this.snapshotCodec = snapshotCodec;
+        this.planNearCache = planNearCache;
+        this.objectMapper = objectMapper;
+        this.readMode = readMode;
+        this.snapshotEnabled = snapshotEnabled;
+        this.walkerReadTimer = meterRegistry.timer("plan.read", "reader", "walker");
+        this.luaReadTimer = meterRegistry.timer("plan.read", "reader", "lua");
+        this.readMismatchCounter = meterRegistry.counter("plan.read.mismatch");
     }
 
-    public String createPlan(JSONObject jsonObjectPlan, String objectKey) {
-        mapMapper(jsonObjectPlan);
-        return this.updateEtag(objectKey, jsonObjectPlan);
+    public PlanWrite createPlan(PlanDocument plan, String objectKey) {
+        return savePlan(plan, objectKey);
     }
 
-    public String updateEtag(String eTagKey, JSONObject eTagValue) {
-        String eTag = eTagService.getETag(eTagValue);
-        jedis.hset(eTagKey, "eTag", eTag);
-        return eTag;
+    /**
+     * Writes the whole plan graph together with its eTags in a single MULTI/EXEC batch,
+     * so the number of round trips stays constant regardless of the plan size.
+     * In snapshot mode the serialized document is written in the same batch.
+     *
+     * @param plan      The plan to be stored.
+     * @param objectKey The redis key of the root plan object.
+     * @return The eTag generated for the stored plan and its new revision.
+     */
+    public PlanWrite savePlan(PlanDocument plan, String objectKey) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            return writePlan(jedis, plan, objectKey, false);
+        }
     }
 
-    public boolean ifKeyExists(String objectKey) {
-        return jedis.exists(objectKey);
+    /**
+     * Replaces a stored plan: the old graph is removed and the new one written in the same MULTI/EXEC batch,
+     * so objects the new plan no longer has do not linger in its edges, and readers never see a mix of both.
+     * The plan's eTag is checked under WATCH, so the replacement is abandoned if another request changes the
+     * plan after the caller's precondition was checked.
+     *
+     * @param plan         The replacement plan.
+     * @param objectKey    The redis key of the root plan object.
+     * @param expectedETag The eTag the caller's precondition was checked against.
+     * @return The eTag generated for the stored plan and its new revision, or null if the plan no longer has the expected eTag.
+     */
+    public PlanWrite replacePlan(PlanDocument plan, String objectKey, String expectedETag) {
+        for (int attempt = 0; attempt < MAX_WRITE_ATTEMPTS; attempt++) {
+            try (Jedis jedis = jedisPool.getResource()) {
+                jedis.watch(objectKey);
+                if (!Objects.equals(jedis.hget(objectKey, "eTag"), expectedETag)) {
+                    jedis.unwatch();
+                    return null;
+                }
+                PlanWrite write = writePlan(jedis, plan, objectKey, true);
+                if (write != null) {
+                    return write;
+                }
+            }
+            System.out.println("Plan " + objectKey + " changed during replace, retrying");
+        }
+        throw new IllegalStateException("Plan " + objectKey + " kept changing, replace abandoned");
     }
 
     /**
-     * Maps a JSONObject to a Map structure and updates Redis accordingly.
+     * @return The eTag and revision of the written plan, or null if a WATCHed key changed and nothing was written.
+     */
+    private PlanWrite writePlan(Jedis jedis, PlanDocument plan, String objectKey, boolean replace) {
+        Transaction transaction = jedis.multi();
+        if (replace) {
+            // Only the old graph; the registry entry, snapshot and revision are written below, so one PUT is one revision
+            redisScripts.eval(transaction, RedisScripts.DELETE_PLAN_GRAPH, Collections.singletonList(objectKey),
+                    Collections.singletonList(EDGE_INDEX_PREFIX));
+        }
+        String eTag = mapMapper(plan.getTree(), transaction).eTag();
+        transaction.zadd(PLAN_REGISTRY_KEY, 0, objectKey);
+        Response<Long> revision = transaction.incr(revisionKey(objectKey));
+        if (snapshotEnabled) {
+            transaction.set(snapshotKey(objectKey), snapshotCodec.encode(plan.getTree()));
+        } else {
+            // Never leave a stale snapshot behind for a later switch back to snapshot mode
+            transaction.unlink(snapshotKey(objectKey));
+        }
+        if (planNearCache.isEnabled()) {
+            transaction.publish(PlanNearCache.INVALIDATION_CHANNEL, objectKey);
+        }
+        if (transaction.exec() == null) {
+            return null;
+        }
+        planNearCache.invalidate(objectKey);
+        System.out.println((replace ? "Replaced" : "Saved") + " plan " + objectKey + " in a single batch");
+        return new PlanWrite(eTag, revision.get());
+    }
+
+    /**
+     * Writes many plans through one pipeline, queuing for each the same commands savePlan runs in its MULTI.
+     * The pipeline is not transactional: if the connection fails part way, earlier plans stay written.
      *
-     * @param jsonObject The JSONObject to be mapped.
-     * @return A map representation of the given JSONObject.
-     * @throws JSONException If there's an error during JSON processing.
+     * @param plans The plans to be stored.
+     * @return The eTags and revisions of the stored plans, in input order.
      */
-    public Map<String, Map<String, Object>> mapMapper(JSONObject jsonObject) throws JSONException {
+    public List<PlanWrite> savePlans(List<PlanDocument> plans) {
+        List<String> eTags = new ArrayList<>(plans.size());
+        List<Response<Long>> revisions = new ArrayList<>(plans.size());
+        List<String> keys = new ArrayList<>(plans.size());
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (PlanDocument plan : plans) {
+                String objectKey = plan.getObjectKey();
+                eTags.add(mapMapper(plan.getTree(), pipeline).eTag());
+                keys.add(objectKey);
+                pipeline.zadd(PLAN_REGISTRY_KEY, 0, objectKey);
+                revisions.add(pipeline.incr(revisionKey(objectKey)));
+                if (snapshotEnabled) {
+                    pipeline.set(snapshotKey(objectKey), snapshotCodec.encode(plan.getTree()));
+                } else {
+                    pipeline.unlink(snapshotKey(objectKey));
+                }
+                if (planNearCache.isEnabled()) {
+                    pipeline.publish(PlanNearCache.INVALIDATION_CHANNEL, objectKey);
+                }
+            }
+            pipeline.sync();
+        }
+        keys.forEach(planNearCache::invalidate);
+        System.out.println("Saved " + plans.size() + " plans in one pipeline");
+
+        List<PlanWrite> writes = new ArrayList<>(plans.size());
+        for (int i = 0; i < eTags.size(); i++) {
+            writes.add(new PlanWrite(eTags.get(i), revisions.get(i).get()));
+        }
+        return writes;
+    }
 
-        Map<String, Map<String, Object>> objectMap = new HashMap<>();
-        Map<String, Object> jsonValueMap = new HashMap<>();
-        Iterator<String> jsonObjectKeyIterator = jsonObject.keys();
+    /**
+     * Checks which of the given keys exist, in one round trip.
+     */
+    public List<Boolean> keysExist(List<String> objectKeys) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<Boolean>> responses = new ArrayList<>(objectKeys.size());
+            for (String objectKey : objectKeys) {
+                responses.add(pipeline.exists(objectKey));
+            }
+            pipeline.sync();
 
-        String redisKey = jsonObject.get("objectType") + ":" + jsonObject.get("objectId");
+            List<Boolean> exists = new ArrayList<>(responses.size());
+            for (Response<Boolean> response : responses) {
+                exists.add(response.get());
+            }
+            return exists;
+        }
+    }
 
-        try {
-            while (jsonObjectKeyIterator.hasNext()) {
-                String objectKey = jsonObjectKeyIterator.next();
-                Object objectValue = jsonObject.get(objectKey);
-
-                if (objectValue instanceof JSONObject) {
-                    Map<String, Map<String, Object>> objectValueMap = mapMapper((JSONObject) objectValue);
-                    String nextKey = objectValueMap.keySet().iterator().next();
-                    jedis.sadd(redisKey + ":" + objectKey, nextKey);
-                    System.out.println("Inside Object, redisKey: " + redisKey + ":" + objectKey + ":" + nextKey);
-
-                } else if (objectValue instanceof JSONArray) {
-                    List<Map<String, Map<String, Object>>> listValue = listMapper((JSONArray) objectValue);
-                    for (Map<String, Map<String, Object>> entryMap : listValue) {
-                        for (String listKeyValue : entryMap.keySet()) {
-                            jedis.sadd(redisKey + ":" + objectKey, listKeyValue);
-                            System.out.println("Inside Array, redisKey: " + redisKey + ":" + objectKey + ":" + listKeyValue);
+    /**
+     * Adds child objects under one edge of a plan (e.g. linkedPlanServices) without rewriting the rest of the graph.
+     * Only the new fragments and the root are hashed; the root eTag is recomputed from its own fields and the
+     * eTags already stored on its children. The root key is WATCHed, so the batch is retried if another writer
+     * changes the plan in between.
+     *
+     * @param planKey      The redis key of the root plan object.
+     * @param field        The edge the fragments are added to.
+     * @param fragments    The array of objects to add; an object with an objectId already under the edge replaces it,
+     *                     together with everything nested in it, in the same batch.
+     * @param expectedETag The eTag the caller's precondition was checked against.
+     * @return The new eTag and revision of the plan, or null if the plan no longer has the expected eTag.
+     */
+    public PlanWrite appendToPlan(String planKey, String field, JsonNode fragments, String expectedETag) {
+        String edgeKey = planKey + ":" + field;
+
+        for (int attempt = 0; attempt < MAX_WRITE_ATTEMPTS; attempt++) {
+            try (Jedis jedis = jedisPool.getResource()) {
+                jedis.watch(planKey);
+                Map<String, String> rootFields = jedis.hgetAll(planKey);
+                if (rootFields.isEmpty() || !Objects.equals(rootFields.get("eTag"), expectedETag)) {
+                    jedis.unwatch();
+                    return null;
+                }
+                Map<String, Map<String, String>> childETags = readChildETags(jedis, planKey);
+                Map<String, Object> document = snapshotEnabled ? loadPlan(jedis, planKey) : null;
+
+                Transaction transaction = jedis.multi();
+                Map<String, String> edgeETags = childETags.computeIfAbsent(field, edge -> new HashMap<>());
+                Set<String> storedChildren = new HashSet<>(edgeETags.keySet());
+                for (JsonNode fragment : fragments) {
+                    if (fragment.isObject()) {
+                        String childKey = fragment.path("objectType").asText() + ":" + fragment.path("objectId").asText();
+                        if (storedChildren.remove(childKey)) {
+                            // Drop the replaced object's old subtree, or nested objects it no longer has would stay
+                            redisScripts.eval(transaction, RedisScripts.DELETE_PLAN_GRAPH, Collections.singletonList(childKey),
+                                    Collections.singletonList(EDGE_INDEX_PREFIX));
                         }
+                        StoredNode child = mapMapper(fragment, transaction);
+                        transaction.sadd(edgeKey, child.key());
+                        edgeETags.put(child.key(), child.eTag());
                     }
+                }
+                transaction.sadd(edgeIndexKey(planKey), edgeKey);
 
+                String eTag = nodeETag(rootFields, childETags);
+                transaction.hset(planKey, "eTag", eTag);
+                Response<Long> revision = transaction.incr(revisionKey(planKey));
+                if (document != null) {
+                    transaction.set(snapshotKey(planKey), snapshotCodec.encode(withFragments(document, field, fragments)));
                 } else {
-                    jedis.hset(redisKey, objectKey, objectValue.toString());
-                    System.out.println("RedisKey: " + redisKey + ", objKey: " + objectKey + ", val: " + objectValue);
-                    jsonValueMap.put(objectKey, objectValue);
-                    objectMap.put(redisKey, jsonValueMap);
+                    // As in writePlan: a snapshot left from before would be served once snapshot mode is back on
+                    transaction.unlink(snapshotKey(planKey));
+                }
+                if (planNearCache.isEnabled()) {
+                    transaction.publish(PlanNearCache.INVALIDATION_CHANNEL, planKey);
+                }
+
+                if (transaction.exec() != null) {
+                    planNearCache.invalidate(planKey);
+                    System.out.println("Appended " + fragments.size() + " objects to " + edgeKey);
+                    return new PlanWrite(eTag, revision.get());
                 }
             }
-        } finally {
-            jedis.close();
+            System.out.println("Plan " + planKey + " changed during append, retrying");
         }
+        throw new IllegalStateException("Plan " + planKey + " kept changing, append abandoned");
+    }
 
-        return objectMap;
+    private JsonNode withFragments(Map<String, Object> document, String field, JsonNode fragments) {
+        ObjectNode plan = objectMapper.valueToTree(document);
+        Set<String> replacedIds = new HashSet<>();
+        for (JsonNode fragment : fragments) {
+            replacedIds.add(fragment.path("objectId").asText());
+        }
+        JsonNode existing = plan.path(field);
+        ArrayNode merged = JsonNodeFactory.instance.arrayNode();
+        if (existing.isArray()) {
+            for (JsonNode child : existing) {
+                if (!replacedIds.contains(child.path("objectId").asText())) {
+                    merged.add(child);
+                }
+            }
+        }
+        fragments.forEach(merged::add);
+        plan.set(field, merged);
+        return plan;
     }
 
     /**
-     * Maps a JSONArray to a List structure.
+     * Computes the Merkle eTag of one node from its scalar fields, as stored in its hash, and the eTags of its
+     * children grouped by edge. Child eTags are sorted because the graph keeps children in sets, so the
+     * order of array elements is not part of the tag.
+     */
+    private String nodeETag(Map<String, String> fields, Map<String, Map<String, String>> childETags) {
+        ObjectNode digest = JsonNodeFactory.instance.objectNode();
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            if (!field.getKey().equals("eTag")) {
+                digest.put(field.getKey(), field.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> edge : childETags.entrySet()) {
+            List<String> tags = new ArrayList<>(edge.getValue().values());
+            Collections.sort(tags);
+            ArrayNode tagArray = digest.putArray(edge.getKey());
+            tags.forEach(tagArray::add);
+        }
+        return eTagService.getETag(digest);
+    }
+
+    /**
+     * Reads the stored eTags of the direct children of a node, by edge name and child key.
+     * Children written before nodes carried their own eTag are hashed from their stored subtree.
+     */
+    private Map<String, Map<String, String>> readChildETags(Jedis jedis, String key) {
+        Map<String, Map<String, String>> childETags = new HashMap<>();
+        for (String edgeKey : jedis.smembers(edgeIndexKey(key))) {
+            List<String> childKeys = new ArrayList<>(jedis.smembers(edgeKey));
+
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<String>> eTags = new ArrayList<>(childKeys.size());
+            for (String childKey : childKeys) {
+                eTags.add(pipeline.hget(childKey, "eTag"));
+            }
+            pipeline.sync();
+
+            Map<String, String> edgeETags = new HashMap<>();
+            for (int i = 0; i < childKeys.size(); i++) {
+                String eTag = eTags.get(i).get();
+                if (eTag == null) {
+                    eTag = nodeETag(jedis.hgetAll(childKeys.get(i)), readChildETags(jedis, childKeys.get(i)));
+                }
+                edgeETags.put(childKeys.get(i), eTag);
+            }
+            childETags.put(edgeKey.substring(key.length() + 1), edgeETags);
+        }
+        return childETags;
+    }
+
+    public boolean ifKeyExists(String objectKey) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            return jedis.exists(objectKey);
+        }
+    }
+
+    /**
+     * Queues the Redis writes for a JSON object and everything nested in it on the given batch.
+     * Children are written first so each node's hash can carry its own eTag, derived from its
+     * scalar fields and its children's eTags.
      *
-     * @param jsonArray The JSONArray to be mapped.
-     * @return A list representation of the given JSONArray.
-     * @throws JSONException If there's an error during JSON processing.
+     * @param jsonObject The JSON object to be mapped.
+     * @param batch      The pipeline or transaction collecting the writes.
+     * @return The redis key and eTag of the written node.
      */
-    private List<Map<String, Map<String, Object>>> listMapper(JSONArray jsonArray) throws JSONException {
-        List<Map<String, Map<String, Object>>> resultList = new ArrayList<>();
+    private StoredNode mapMapper(JsonNode jsonObject, PipelineCommands batch) {
+
+        Map<String, String> hashFields = new HashMap<>();
+        Map<String, Map<String, String>> childETags = new HashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> jsonObjectFieldIterator = jsonObject.fields();
+
+        String redisKey = jsonObject.path("objectType").asText() + ":" + jsonObject.path("objectId").asText();
+
+        while (jsonObjectFieldIterator.hasNext()) {
+            Map.Entry<String, JsonNode> field = jsonObjectFieldIterator.next();
+            String objectKey = field.getKey();
+            JsonNode objectValue = field.getValue();
+
+            if (objectValue.isObject()) {
+                StoredNode child = mapMapper(objectValue, batch);
+                batch.sadd(redisKey + ":" + objectKey, child.key());
+                batch.sadd(edgeIndexKey(redisKey), redisKey + ":" + objectKey);
+                childETags.computeIfAbsent(objectKey, edge -> new HashMap<>()).put(child.key(), child.eTag());
+
+            } else if (objectValue.isArray()) {
+                List<StoredNode> listValue = listMapper(objectValue, batch);
+                batch.sadd(edgeIndexKey(redisKey), redisKey + ":" + objectKey);
+                Map<String, String> edgeETags = childETags.computeIfAbsent(objectKey, edge -> new HashMap<>());
+                for (StoredNode child : listValue) {
+                    batch.sadd(redisKey + ":" + objectKey, child.key());
+                    edgeETags.put(child.key(), child.eTag());
+                }
+
+            } else {
+                hashFields.put(objectKey, objectValue.asText());
+            }
+        }
 
-        for (Object objectValue : jsonArray) {
-            if (objectValue instanceof JSONArray) {
-                resultList.add(listMapper((JSONArray) objectValue).get(0)); // Assuming each JSONArray contains one item
-            } else if (objectValue instanceof JSONObject) {
-                resultList.add(mapMapper((JSONObject) objectValue));
+        String eTag = nodeETag(hashFields, childETags);
+        hashFields.put("eTag", eTag);
+
+        // One HSET per object instead of one per field
+        batch.hset(redisKey, hashFields);
+
+        return new StoredNode(redisKey, eTag);
+    }
+
+    /**
+     * Queues the Redis writes for the objects in a JSON array.
+     *
+     * @param jsonArray The JSON array to be mapped.
+     * @param batch     The pipeline or transaction collecting the writes.
+     * @return The redis keys and eTags of the written objects.
+     */
+    private List<StoredNode> listMapper(JsonNode jsonArray, PipelineCommands batch) {
+        List<StoredNode> resultList = new ArrayList<>();
+
+        for (JsonNode objectValue : jsonArray) {
+            if (objectValue.isArray()) {
+                resultList.add(listMapper(objectValue, batch).get(0)); // Assuming each array contains one item
+            } else if (objectValue.isObject()) {
+                resultList.add(mapMapper(objectValue, batch));
             }
         }
 
         return resultList;
     }
 
+    /**
+     * Key and eTag of a node queued for writing.
+     */
+    private record StoredNode(String key, String eTag) {
+    }
+
     public String accessEtag(String eTagKey) {
-        return jedis.hget(eTagKey, "eTag");
+        return planNearCache.getETag(eTagKey, () -> readEtag(eTagKey));
+    }
+
+    /**
+     * Reads the stored eTag of any node, bypassing the near cache.
+     */
+    public String readEtag(String eTagKey) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            return jedis.hget(eTagKey, "eTag");
+        }
+    }
+
+    /**
+     * Finds the key of the child with the given objectId under one edge of an object.
+     *
+     * @return The child's redis key, or null if the edge has no such child.
+     */
+    public String findChildKey(String objectKey, String field, String objectId) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            for (String childKey : jedis.smembers(objectKey + ":" + field)) {
+                if (childKey.substring(childKey.indexOf(':') + 1).equals(objectId)) {
+                    return childKey;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Reads one object of a plan, with everything nested below it, straight from the graph.
+     */
+    public Map<String, Object> getNode(String nodeKey) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            return readPlan(jedis, nodeKey);
+        }
     }
 
     public Map<String, Object> getPlanById(String keyId) {
-        Map<String, Object> resultMap = new HashMap<String, Object>();
-        accessOrPurgeData(keyId, resultMap, false);
-        return resultMap;
+        if (!planNearCache.isEnabled()) {
+            return loadPlan(keyId);
+        }
+        String eTag = accessEtag(keyId);
+        if (eTag == null) {
+            return new HashMap<>();
+        }
+        return planNearCache.getPlan(keyId, eTag, () -> loadPlan(keyId), () -> readEtag(keyId));
     }
 
-    private Map<String, Object> accessOrPurgeData(String redisKeyValue, Map<String, Object> resultMap, boolean isDeleteFlag) {
-        Set<String> keySet = jedis.keys(redisKeyValue + ":*");
-        keySet.add(redisKeyValue);
+    /**
+     * Reads a plan from its snapshot or graph, bypassing the near cache.
+     *
+     * @return The plan, or an empty map if it does not exist.
+     */
+    public Map<String, Object> loadPlan(String keyId) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            return loadPlan(jedis, keyId);
+        }
+    }
 
-        try {
-            for (String keyVal : keySet) {
-                if (keyVal.equals(redisKeyValue)) {
-                    handleRootKey(keyVal, resultMap, isDeleteFlag);
-                } else {
-                    handleNestedKey(redisKeyValue, keyVal, isDeleteFlag, resultMap);
+    private Map<String, Object> loadPlan(Jedis jedis, String keyId) {
+        if (snapshotEnabled) {
+            byte[] snapshot = jedis.get(snapshotKey(keyId));
+            if (snapshot != null) {
+                return snapshotCodec.decode(snapshot);
+            }
+        }
+        return readPlan(jedis, keyId);
+    }
+
+    /**
+     * Reconstructs a plan from its hash/set decomposition, ignoring any snapshot.
+     */
+    public Map<String, Object> getPlanFromGraph(String keyId) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            return readPlan(jedis, keyId);
+        }
+    }
+
+    /**
+     * Reads the stored snapshot of a plan.
+     *
+     * @return The decoded snapshot, or null if the plan has none.
+     */
+    public Map<String, Object> getPlanSnapshot(String keyId) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            byte[] snapshot = jedis.get(snapshotKey(keyId));
+            return snapshot == null ? null : snapshotCodec.decode(snapshot);
+        }
+    }
+
+    /**
+     * Reads a whole plan according to the configured read mode. The Lua reader falls back to
+     * the graph walker if the script cannot be run.
+     */
+    private Map<String, Object> readPlan(Jedis jedis, String key) {
+        switch (readMode) {
+            case LUA:
+                try {
+                    return luaReadTimer.record(() -> luaPlanGraphReader.read(jedis, key));
+                } catch (JedisDataException | IllegalStateException e) {
+                    System.out.println("Lua plan read failed for " + key + ", falling back to graph walker: " + e.getMessage());
+                    return walkerReadTimer.record(() -> retrievePlanData(jedis, key));
+                }
+            case COMPARE:
+                Map<String, Object> walkerPlan = walkerReadTimer.record(() -> retrievePlanData(jedis, key));
+                try {
+                    Map<String, Object> luaPlan = luaReadTimer.record(() -> luaPlanGraphReader.read(jedis, key));
+                    if (!PlanComparator.equivalent(walkerPlan, luaPlan)) {
+                        readMismatchCounter.increment();
+                        System.out.println("Plan readers disagree for " + key + ": walker=" + walkerPlan + " lua=" + luaPlan);
+                    }
+                } catch (JedisDataException | IllegalStateException e) {
+                    readMismatchCounter.increment();
+                    System.out.println("Lua plan read failed for " + key + ": " + e.getMessage());
                 }
+                return walkerPlan;
+            default:
+                return walkerReadTimer.record(() -> retrievePlanData(jedis, key));
+        }
+    }
+
+    /**
+     * Walks the object graph below the given key and collects it into the result map.
+     * The whole walk runs on the single connection borrowed by the caller.
+     */
+    private Map<String, Object> accessData(Jedis jedis, String redisKeyValue, Map<String, Object> resultMap) {
+        Set<String> keySet = jedis.smembers(edgeIndexKey(redisKeyValue));
+        keySet.add(redisKeyValue);
+
+        for (String keyVal : keySet) {
+            if (keyVal.equals(redisKeyValue)) {
+                handleRootKey(jedis, keyVal, resultMap);
+            } else {
+                handleNestedKey(jedis, redisKeyValue, keyVal, resultMap);
             }
-        } finally {
-            jedis.close();
         }
 
         return resultMap;
     }
 
-    private void handleRootKey(String keyVal, Map<String, Object> resultMap, boolean isDeleteFlag) {
-        if (isDeleteFlag) {
-            jedis.del(keyVal);
-        } else {
-            Map<String, String> keyMap = jedis.hgetAll(keyVal);
-            for (Map.Entry<String, String> entry : keyMap.entrySet()) {
-                if (!entry.getKey().equalsIgnoreCase("eTag")) {
-                    resultMap.put(entry.getKey(), ifStringInteger(entry.getValue()) ? Integer.parseInt(entry.getValue()) : entry.getValue());
-                }
+    private void handleRootKey(Jedis jedis, String keyVal, Map<String, Object> resultMap) {
+        Map<String, String> keyMap = jedis.hgetAll(keyVal);
+        for (Map.Entry<String, String> entry : keyMap.entrySet()) {
+            if (!entry.getKey().equalsIgnoreCase("eTag")) {
+                resultMap.put(entry.getKey(), toStoredValue(entry.getValue()));
             }
         }
     }
 
-    private void handleNestedKey(String redisKeyValue, String keyVal, boolean isDeleteFlag, Map<String, Object> resultMap) {
+    private void handleNestedKey(Jedis jedis, String redisKeyValue, String keyVal, Map<String, Object> resultMap) {
         String updatedKey = keyVal.substring((redisKeyValue + ":").length());
         Set<String> keySetMembers = jedis.smembers(keyVal);
 
         if (keySetMembers.size() > 1 || updatedKey.equals("linkedPlanServices")) {
-            handleMultipleKeys(keyVal, updatedKey, isDeleteFlag, resultMap);
+            handleMultipleKeys(jedis, keySetMembers, updatedKey, resultMap);
         } else {
-            handleSingleKey(keyVal, keySetMembers, updatedKey, isDeleteFlag, resultMap);
+            handleSingleKey(jedis, keySetMembers, updatedKey, resultMap);
         }
     }
 
-    private void handleMultipleKeys(String keyVal, String updatedKey, boolean isDeleteFlag, Map<String, Object> resultMap) {
+    private void handleMultipleKeys(Jedis jedis, Set<String> keySetMembers, String updatedKey, Map<String, Object> resultMap) {
         List<Object> resultList = new ArrayList<>();
-        for (String keyMember : jedis.smembers(keyVal)) {
-            if (isDeleteFlag) {
-                accessOrPurgeData(keyMember, null, true);
-            } else {
-                Map<String, Object> objectMap = new HashMap<>();
-                resultList.add(accessOrPurgeData(keyMember, objectMap, false));
-            }
-        }
-        if (isDeleteFlag) {
-            jedis.del(keyVal);
-        } else {
-            resultMap.put(updatedKey, resultList);
+        for (String keyMember : keySetMembers) {
+            Map<String, Object> objectMap = new HashMap<>();
+            resultList.add(accessData(jedis, keyMember, objectMap));
         }
+        resultMap.put(updatedKey, resultList);
     }
 
-    private void handleSingleKey(String keyVal, Set<String> keySetMembers, String updatedKey, boolean isDeleteFlag, Map<String, Object> resultMap) {
-        if (isDeleteFlag) {
-            jedis.del(keySetMembers.iterator().next(), keyVal);
-        } else {
-            Map<String, String> val = jedis.hgetAll(keySetMembers.iterator().next());
-            Map<String, Object> newMap = new HashMap<>();
-            for (Map.Entry<String, String> entry : val.entrySet()) {
-                newMap.put(entry.getKey(), ifStringInteger(entry.getValue()) ? Integer.parseInt(entry.getValue()) : entry.getValue());
+    private void handleSingleKey(Jedis jedis, Set<String> keySetMembers, String updatedKey, Map<String, Object> resultMap) {
+        if (keySetMembers.isEmpty()) {
+            // An empty array leaves an edge index entry but no edge set; skipped, as LuaPlanGraphReader does
+            return;
+        }
+        Map<String, String> val = jedis.hgetAll(keySetMembers.iterator().next());
+        Map<String, Object> newMap = new HashMap<>();
+        for (Map.Entry<String, String> entry : val.entrySet()) {
+            if (!entry.getKey().equalsIgnoreCase("eTag")) {
+                newMap.put(entry.getKey(), toStoredValue(entry.getValue()));
             }
-            resultMap.put(updatedKey, newMap);
         }
+        resultMap.put(updatedKey, newMap);
     }
 
-    private boolean ifStringInteger(String value) {
+    /**
+     * Converts a hash field back to the value type it was written from.
+     */
+    static Object toStoredValue(String value) {
+        return ifStringInteger(value) ? Integer.parseInt(value) : value;
+    }
+
+    private static boolean ifStringInteger(String value) {
         try {
             Integer.parseInt(value);
             return true;
@@ -199,24 +659,101 @@ public class PlanService {
     }
 
 
-    public void deletePlan(String key) {
-        accessOrPurgeData(key, null, true);
+    /**
+     * Deletes the plan and everything reachable from it in one atomic server-side step.
+     * Keys are UNLINKed, so Redis reclaims their memory in the background. The script checks the plan's eTag
+     * in the same step, so a plan changed after the caller's precondition was checked is not deleted.
+     *
+     * @param key          The redis key of the root plan object.
+     * @param expectedETag The eTag the caller's precondition was checked against.
+     * @return The number of keys removed and the plan's revision after the delete, or null if the plan no longer
+     * has the expected eTag.
+     */
+    public PlanDeletion deletePlan(String key, String expectedETag) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            List<?> result = (List<?>) redisScripts.evalsha(jedis, RedisScripts.DELETE_PLAN_GRAPH,
+                    Arrays.asList(key, revisionKey(key)), Arrays.asList(EDGE_INDEX_PREFIX, PLAN_REGISTRY_KEY, SNAPSHOT_PREFIX, expectedETag));
+            if (result == null) {
+                return null;
+            }
+            if (planNearCache.isEnabled()) {
+                jedis.publish(PlanNearCache.INVALIDATION_CHANNEL, key);
+            }
+            planNearCache.invalidate(key);
+            return new PlanDeletion((Long) result.get(0), (Long) result.get(1));
+        }
     }
 
-    public List<Map<String, Object>> getAllPlans() {
-        Set<String> keys = jedis.keys("plan:*").stream()
-                .filter(s -> s.lastIndexOf(":") == s.indexOf(":"))
-                .collect(Collectors.toSet());
+    /**
+     * @return The current revision of the plan; 0 if it was never written.
+     */
+    public long getRevision(String planKey) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            String revision = jedis.get(revisionKey(planKey));
+            return revision == null ? 0 : Long.parseLong(revision);
+        }
+    }
+
+    /**
+     * Reads one page of plans from the plan registry, ordered by plan key.
+     *
+     * @param cursor The cursor returned with the previous page, or null for the first page.
+     * @param limit  The maximum number of plans in the page.
+     * @return The reconstructed plans and the cursor of the next page.
+     */
+    public PlanPage getPlanPage(String cursor, int limit) {
+        String min = (cursor == null || cursor.isEmpty()) ? "-" : "(plan:" + cursor;
+
+        try (Jedis jedis = jedisPool.getResource()) {
+            List<String> keys = jedis.zrangeByLex(PLAN_REGISTRY_KEY, min, "+", 0, limit);
+
+            List<byte[]> snapshots = Collections.nCopies(keys.size(), null);
+            if (snapshotEnabled && !keys.isEmpty()) {
+                byte[][] snapshotKeys = keys.stream().map(PlanService::snapshotKey).toArray(byte[][]::new);
+                snapshots = jedis.mget(snapshotKeys);
+            }
+
+            List<Map<String, Object>> plans = new ArrayList<>(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                byte[] snapshot = snapshots.get(i);
+                plans.add(snapshot != null ? snapshotCodec.decode(snapshot) : readPlan(jedis, keys.get(i)));
+            }
+
+            String nextCursor = null;
+            if (keys.size() == limit) {
+                String lastKey = keys.get(keys.size() - 1);
+                nextCursor = lastKey.substring("plan:".length());
+            }
+            return new PlanPage(plans, nextCursor);
+        }
+    }
 
-        return keys.stream()
-                .map(this::retrievePlanData)
-                .collect(Collectors.toList());
+    /**
+     * Lists root plan keys from the plan registry, in key order, starting after the given key.
+     */
+    public List<String> getPlanKeys(String afterKey, int limit) {
+        String min = afterKey == null ? "-" : "(" + afterKey;
+        try (Jedis jedis = jedisPool.getResource()) {
+            return jedis.zrangeByLex(PLAN_REGISTRY_KEY, min, "+", 0, limit);
+        }
     }
 
-    private Map<String, Object> retrievePlanData(String key) {
+    private Map<String, Object> retrievePlanData(Jedis jedis, String key) {
         Map<String, Object> outputMap = new HashMap<>();
-        accessOrPurgeData(key, outputMap, false);
+        accessData(jedis, key, outputMap);
         return outputMap;
     }
 
+    public static String edgeIndexKey(String objectKey) {
+        return EDGE_INDEX_PREFIX + objectKey;
+    }
+
+    public static String revisionKey(String planKey) {
+        return REVISION_PREFIX + planKey;
+    }
+
+    public static byte[] snapshotKey(String planKey) {
+        return (SNAPSHOT_PREFIX + planKey).getBytes(StandardCharsets.UTF_8);
+    }
+
 }
@@ -0,0 +1,59 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+/**
+ * Encodes whole-plan snapshots as compact JSON or as binary Smile. Decoding recognises both
+ * formats from the payload itself (Smile documents start with the ":)" header), so switching
+ * plan.storage.snapshot.format does not invalidate snapshots written before the switch.
+ */
+@Component
+public class PlanSnapshotCodec {
+
+    public enum Format { JSON, SMILE }
+
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {
+    };
+
+    private final ObjectMapper jsonMapper;
+    private final ObjectMapper smileMapper = new SmileMapper();
+    private final Format format;
+
+    public PlanSnapshotCodec(ObjectMapper jsonMapper,
+                             @Value("${plan.storage.snapshot.format:smile}") Format format) {
+        this.jsonMapper = jsonMapper;
+        this.format = format;
+    }
+
+    public byte[] encode(JsonNode plan) {
+        try {
+            return format == Format.JSON ? jsonMapper.writeValueAsBytes(plan) : smileMapper.writeValueAsBytes(plan);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to encode plan snapshot", e);
+        }
+    }
+
+    public Map<String, Object> decode(byte[] snapshot) {
+        try {
+            if (isSmile(snapshot)) {
+                return smileMapper.readValue(snapshot, MAP_TYPE);
+            }
+            return jsonMapper.readValue(snapshot, MAP_TYPE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to decode plan snapshot", e);
+        }
+    }
+
+    private static boolean isSmile(byte[] snapshot) {
+        return snapshot.length >= 2 && snapshot[0] == ':' && snapshot[1] == ')';
+    }
+}
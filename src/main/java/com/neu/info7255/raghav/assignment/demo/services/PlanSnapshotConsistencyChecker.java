@@ -0,0 +1,92 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the stored snapshot of each plan with the plan rebuilt from its hash/set graph.
+ * Exposed as the actuator endpoint /actuator/plansnapshots (all plans) and
+ * /actuator/plansnapshots/{id} (a single plan).
+ */
+@Component
+@Endpoint(id = "plansnapshots")
+public class PlanSnapshotConsistencyChecker {
+
+    private static final int PAGE_SIZE = 500;
+    private static final int MAX_REPORTED_KEYS = 100;
+
+    private final PlanService planService;
+
+    public PlanSnapshotConsistencyChecker(PlanService planService) {
+        this.planService = planService;
+    }
+
+    @ReadOperation
+    public Map<String, Object> checkAll() {
+        int checked = 0;
+        List<String> missing = new ArrayList<>();
+        List<String> mismatched = new ArrayList<>();
+
+        String lastKey = null;
+        List<String> keys;
+        do {
+            keys = planService.getPlanKeys(lastKey, PAGE_SIZE);
+            for (String key : keys) {
+                checked++;
+                String status = checkPlan(key);
+                if ("missing".equals(status)) {
+                    report(missing, key);
+                } else if ("mismatch".equals(status)) {
+                    report(mismatched, key);
+                }
+            }
+            if (!keys.isEmpty()) {
+                lastKey = keys.get(keys.size() - 1);
+            }
+        } while (keys.size() == PAGE_SIZE);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("checked", checked);
+        result.put("missingSnapshots", missing);
+        result.put("mismatchedSnapshots", mismatched);
+        return result;
+    }
+
+    @ReadOperation
+    public Map<String, Object> check(@Selector String id) {
+        String key = "plan:" + id;
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("plan", key);
+        result.put("status", checkPlan(key));
+        return result;
+    }
+
+    /**
+     * @return "consistent", "missing" when the plan has no snapshot, or "mismatch".
+     */
+    private String checkPlan(String key) {
+        Map<String, Object> snapshot = planService.getPlanSnapshot(key);
+        if (snapshot == null) {
+            return "missing";
+        }
+        Map<String, Object> graph = planService.getPlanFromGraph(key);
+        if (!PlanComparator.equivalent(snapshot, graph)) {
+            System.out.println("Snapshot and graph differ for " + key);
+            return "mismatch";
+        }
+        return "consistent";
+    }
+
+    private static void report(List<String> keys, String key) {
+        if (keys.size() < MAX_REPORTED_KEYS) {
+            keys.add(key);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Extracts the schema of every nested node type from PlanSchema.json, keyed by the field it hangs off
+ * (planCostShares, linkedPlanServices, linkedService, planserviceCostShares), so that a fragment can be
+ * validated on its own. For an array field the schema of its elements is used; PlanSchema.json writes
+ * linkedPlanServices items as a tuple of identical schemas, so the first one stands for all elements.
+ */
+final class PlanSubSchemas {
+
+    private PlanSubSchemas() {
+    }
+
+    static Map<String, JsonNode> extract(JsonNode rootSchema) {
+        Map<String, JsonNode> subSchemas = new HashMap<>();
+        collect(rootSchema, subSchemas);
+        return subSchemas;
+    }
+
+    private static void collect(JsonNode schema, Map<String, JsonNode> subSchemas) {
+        Iterator<Map.Entry<String, JsonNode>> properties = schema.path("properties").fields();
+        while (properties.hasNext()) {
+            Map.Entry<String, JsonNode> property = properties.next();
+            JsonNode propertySchema = property.getValue();
+
+            JsonNode nodeSchema = null;
+            if ("object".equals(propertySchema.path("type").asText())) {
+                nodeSchema = propertySchema;
+            } else if ("array".equals(propertySchema.path("type").asText())) {
+                JsonNode items = propertySchema.path("items");
+                nodeSchema = items.isArray() ? items.path(0) : items;
+            }
+
+            if (nodeSchema != null && nodeSchema.isObject()) {
+                subSchemas.put(property.getKey(), nodeSchema);
+                collect(nodeSchema, subSchemas);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the Lua scripts shipped under resources/scripts. Scripts are loaded once with
+ * SCRIPT LOAD and then invoked with EVALSHA; a NOSCRIPT reply (e.g. after a Redis restart or
+ * SCRIPT FLUSH) reloads the script and retries once.
+ */
+@Component
+public class RedisScripts {
+
+    public static final String READ_PLAN_GRAPH = "read_plan_graph";
+    public static final String DELETE_PLAN_GRAPH = "delete_plan_graph";
+
+    private final Map<String, String> sources = new ConcurrentHashMap<>();
+    private final Map<String, String> shas = new ConcurrentHashMap<>();
+
+    public Object evalsha(Jedis jedis, String scriptName, List<String> keys, List<String> args) {
+        String sha = shas.computeIfAbsent(scriptName, name -> jedis.scriptLoad(source(name)));
+        try {
+            return jedis.evalsha(sha, keys, args);
+        } catch (JedisNoScriptException e) {
+            sha = jedis.scriptLoad(source(scriptName));
+            shas.put(scriptName, sha);
+            return jedis.evalsha(sha, keys, args);
+        }
+    }
+
+    /**
+     * Queues a script into a MULTI. The script is sent with EVAL rather than EVALSHA, because a NOSCRIPT reply
+     * only shows up at EXEC, when the rest of the transaction has already been applied.
+     */
+    public Response<Object> eval(Transaction transaction, String scriptName, List<String> keys, List<String> args) {
+        return transaction.eval(source(scriptName), keys, args);
+    }
+
+    private String source(String scriptName) {
+        return sources.computeIfAbsent(scriptName, name -> {
+            try (InputStream inputStream = new ClassPathResource("scripts/" + name + ".lua").getInputStream()) {
+                return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to read Lua script " + name, e);
+            }
+        });
+    }
+}
@@ -0,0 +1,62 @@
+-- Atomically removes the plan rooted at KEYS[1]: every object hash, child-edge set and edge
+-- index set reachable from it, its snapshot, and its entry in the plan registry, and increments
+-- the plan's revision counter KEYS[2], which is kept.
+-- ARGV[1] is the edge index prefix, ARGV[2] the plan registry key and ARGV[3] the snapshot
+-- prefix maintained by PlanService. If ARGV[4] is given, nothing is removed unless it equals the
+-- plan's current eTag, and false is returned instead.
+-- Without KEYS[2], only the graph rooted at KEYS[1] is removed, and the plan's snapshot, registry
+-- entry and revision are left alone. This is for an object being replaced in the same MULTI, either
+-- inside a plan (e.g. a linkedPlanService) or a whole plan on PUT, whose write bumps the revision once.
+-- Keys are removed with UNLINK so their memory is reclaimed in the background.
+-- Returns the number of keys removed and, for a plan, the new revision.
+local edgeIndexPrefix = ARGV[1]
+local registryKey = ARGV[2]
+local snapshotPrefix = ARGV[3]
+local expectedETag = ARGV[4]
+
+if expectedETag and redis.call('HGET', KEYS[1], 'eTag') ~= expectedETag then
+    return false
+end
+
+local closure = {}
+local seen = {}
+
+local function collect(key)
+    if seen[key] then
+        return
+    end
+    seen[key] = true
+    table.insert(closure, key)
+
+    local edgeIndexKey = edgeIndexPrefix .. key
+    table.insert(closure, edgeIndexKey)
+
+    for _, edgeKey in ipairs(redis.call('SMEMBERS', edgeIndexKey)) do
+        table.insert(closure, edgeKey)
+        for _, childKey in ipairs(redis.call('SMEMBERS', edgeKey)) do
+            collect(childKey)
+        end
+    end
+end
+
+local isPlan = KEYS[2] ~= nil
+
+collect(KEYS[1])
+if isPlan then
+    table.insert(closure, snapshotPrefix .. KEYS[1])
+end
+
+local removed = 0
+local batchSize = 500
+for i = 1, #closure, batchSize do
+    removed = removed + redis.call('UNLINK', unpack(closure, i, math.min(i + batchSize - 1, #closure)))
+end
+
+if not isPlan then
+    return {removed}
+end
+
+redis.call('ZREM', registryKey, KEYS[1])
+local revision = redis.call('INCR', KEYS[2])
+
+return {removed, revision}
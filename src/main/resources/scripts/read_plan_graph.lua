@@ -0,0 +1,30 @@
+-- Reads the whole objectType:objectId hash/set graph below KEYS[1] in one call.
+-- ARGV[1] is the prefix of the per-object edge index sets maintained by PlanService.
+-- Each node is returned as {"fields": {...}, "edges": {"<field>": [<node>, ...]}}, JSON encoded.
+-- Child keys are discovered through the edge index, so this script is meant for a standalone Redis.
+local edgeIndexPrefix = ARGV[1]
+
+local function readNode(key)
+    local node = { fields = {}, edges = {} }
+
+    local flat = redis.call('HGETALL', key)
+    for i = 1, #flat, 2 do
+        node.fields[flat[i]] = flat[i + 1]
+    end
+
+    for _, edgeKey in ipairs(redis.call('SMEMBERS', edgeIndexPrefix .. key)) do
+        local children = {}
+        for _, childKey in ipairs(redis.call('SMEMBERS', edgeKey)) do
+            table.insert(children, readNode(childKey))
+        end
+        node.edges[string.sub(edgeKey, #key + 2)] = children
+    end
+
+    return node
+end
+
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    return false
+end
+
+return cjson.encode(readNode(KEYS[1]))
@@ -0,0 +1,91 @@
+package com.neu.info7255.raghav.assignment.demo.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neu.info7255.raghav.assignment.demo.services.ETagService;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares ETag generation for the sample plan: the previous implementation (SHA-256 over json.toString())
+ * against the canonical streaming ETagService with SHA-256 and murmur3_128.
+ * The legacy variant gets a digest per thread here only so that the multi-threaded run does not corrupt it.
+ * <p>
+ * Run with:
+ * mvn test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test
+ * -Dexec.args="-cp %classpath com.neu.info7255.raghav.assignment.demo.benchmark.ETagServiceBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ETagServiceBenchmark {
+
+    private JSONObject plan;
+    private JsonNode planTree;
+    private ETagService sha256;
+    private ETagService murmur3;
+    private ThreadLocal<MessageDigest> legacyDigest;
+
+    @Setup
+    public void setUp() throws IOException {
+        try (InputStream in = ETagServiceBenchmark.class.getResourceAsStream("/benchmark/plan.json")) {
+            String json = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            plan = new JSONObject(json);
+            planTree = new ObjectMapper().readTree(json);
+        }
+        sha256 = new ETagService("SHA-256");
+        murmur3 = new ETagService(ETagService.MURMUR3_128);
+        legacyDigest = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    @Benchmark
+    public String legacyToStringSha256() {
+        byte[] hash = legacyDigest.get().digest(plan.toString().getBytes(StandardCharsets.UTF_8));
+        return "\"" + Base64.getEncoder().encodeToString(hash) + "\"";
+    }
+
+    @Benchmark
+    public String canonicalSha256() {
+        return sha256.getETag(planTree);
+    }
+
+    @Benchmark
+    public String canonicalMurmur3() {
+        return murmur3.getETag(planTree);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ETagServiceBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,164 @@
+package com.neu.info7255.raghav.assignment.demo.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.neu.info7255.raghav.assignment.demo.services.PlanDocumentFlattener;
+import com.neu.info7255.raghav.assignment.demo.services.PlanDocumentFlattener.IndexedDocument;
+import com.neu.info7255.raghav.assignment.demo.services.PlanMappingGenerator;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.forcemerge.ForceMergeRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.RestHighLevelClientBuilder;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.xcontent.XContentType;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Indexes the same generated plans once with the hand-written mapping IndexingListener used to create
+ * (benchmark/legacy-mapping.json) and once with the mapping PlanMappingGenerator builds from PlanSchema.json,
+ * then prints indexing throughput, store size and disk usage per field for both.
+ * Needs Elasticsearch 7.15 or later (for the _disk_usage API).
+ * <p>
+ * Run with:
+ * mvn test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test
+ * -Dexec.args="-cp %classpath com.neu.info7255.raghav.assignment.demo.benchmark.IndexMappingSizeReport http://localhost:9200 10000"
+ */
+public class IndexMappingSizeReport {
+
+    private static final int BULK_SIZE = 1000;
+    private static final String[] SERVICE_NAMES = {"Yearly physical", "Well baby", "Dental cleaning", "Eye exam", "Flu shot"};
+
+    public static void main(String[] args) throws IOException {
+        String url = args.length > 0 ? args[0] : "http://localhost:9200";
+        int plans = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        JsonNode template = readResource(objectMapper, "/benchmark/plan.json");
+        String legacyMapping = readResource(objectMapper, "/benchmark/legacy-mapping.json").toString();
+        String generatedMapping = PlanMappingGenerator.generate(
+                readResource(objectMapper, "/schema/PlanSchema.json"),
+                readResource(objectMapper, PlanMappingGenerator.OVERRIDESPATH)).toString();
+
+        List<IndexedDocument> documents = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < plans; i++) {
+            documents.addAll(PlanDocumentFlattener.flatten(new JSONObject(generatePlan(template, i, random).toString())));
+        }
+        System.out.println(plans + " plans, " + documents.size() + " documents");
+
+        try (RestClient restClient = RestClient.builder(HttpHost.create(url)).build()) {
+            RestHighLevelClient client = new RestHighLevelClientBuilder(restClient).build();
+            report(client, objectMapper, "mapping-report-legacy", legacyMapping, documents);
+            report(client, objectMapper, "mapping-report-generated", generatedMapping, documents);
+        }
+    }
+
+    private static void report(RestHighLevelClient client, ObjectMapper objectMapper, String index, String mapping,
+                               List<IndexedDocument> documents) throws IOException {
+        if (client.indices().exists(new GetIndexRequest(index), RequestOptions.DEFAULT)) {
+            client.indices().delete(new DeleteIndexRequest(index), RequestOptions.DEFAULT);
+        }
+        CreateIndexRequest create = new CreateIndexRequest(index);
+        create.settings(Settings.builder()
+                .put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0)
+                .put("index.refresh_interval", "-1"));
+        create.mapping(mapping, XContentType.JSON);
+        client.indices().create(create, RequestOptions.DEFAULT);
+
+        long start = System.nanoTime();
+        for (int from = 0; from < documents.size(); from += BULK_SIZE) {
+            BulkRequest bulk = new BulkRequest(index);
+            for (IndexedDocument document : documents.subList(from, Math.min(from + BULK_SIZE, documents.size()))) {
+                bulk.add(new IndexRequest().id(document.id()).routing(document.routing()).source(document.source()));
+            }
+            BulkResponse response = client.bulk(bulk, RequestOptions.DEFAULT);
+            if (response.hasFailures()) {
+                throw new IllegalStateException(response.buildFailureMessage());
+            }
+        }
+        client.indices().refresh(new RefreshRequest(index), RequestOptions.DEFAULT);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        client.indices().forcemerge(new ForceMergeRequest(index).maxNumSegments(1), RequestOptions.DEFAULT);
+
+        JsonNode stats = lowLevel(client, objectMapper, "GET", "/" + index + "/_stats/store,docs");
+        JsonNode total = stats.path("indices").path(index).path("primaries");
+        System.out.printf("%n%s: %d docs in %.2fs (%.0f docs/s), store %d bytes%n", index,
+                total.path("docs").path("count").asLong(), seconds, documents.size() / seconds,
+                total.path("store").path("size_in_bytes").asLong());
+
+        JsonNode usage = lowLevel(client, objectMapper, "POST", "/" + index + "/_disk_usage?run_expensive_tasks=true");
+        Iterator<Map.Entry<String, JsonNode>> fields = usage.path(index).path("fields").fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode fieldUsage = field.getValue();
+            System.out.printf("  %-30s total %8d  inverted %8d  stored %8d  doc_values %8d  points %8d  norms %8d%n",
+                    field.getKey(),
+                    fieldUsage.path("total_in_bytes").asLong(),
+                    fieldUsage.path("inverted_index").path("total_in_bytes").asLong(),
+                    fieldUsage.path("stored_fields_in_bytes").asLong(),
+                    fieldUsage.path("doc_values_in_bytes").asLong(),
+                    fieldUsage.path("points_in_bytes").asLong(),
+                    fieldUsage.path("norms_in_bytes").asLong());
+        }
+
+        client.indices().delete(new DeleteIndexRequest(index), RequestOptions.DEFAULT);
+    }
+
+    private static JsonNode lowLevel(RestHighLevelClient client, ObjectMapper objectMapper, String method, String endpoint) throws IOException {
+        try (InputStream in = client.getLowLevelClient().performRequest(new Request(method, endpoint)).getEntity().getContent()) {
+            return objectMapper.readTree(in);
+        }
+    }
+
+    /**
+     * A copy of the template plan with unique object ids and varied values.
+     */
+    private static JsonNode generatePlan(JsonNode template, int number, Random random) {
+        ObjectNode plan = template.deepCopy();
+        plan.put("objectId", "plan-" + number);
+        plan.put("creationDate", String.format("%02d-%02d-20%02d", 1 + random.nextInt(12), 1 + random.nextInt(28), 10 + random.nextInt(14)));
+        randomizeCostShares((ObjectNode) plan.get("planCostShares"), "pcs-" + number, random);
+        int service = 0;
+        for (JsonNode linkedPlanService : plan.get("linkedPlanServices")) {
+            String suffix = number + "-" + service++;
+            ((ObjectNode) linkedPlanService).put("objectId", "lps-" + suffix);
+            ObjectNode linkedService = (ObjectNode) linkedPlanService.get("linkedService");
+            linkedService.put("objectId", "ls-" + suffix);
+            linkedService.put("name", SERVICE_NAMES[random.nextInt(SERVICE_NAMES.length)]);
+            randomizeCostShares((ObjectNode) linkedPlanService.get("planserviceCostShares"), "pscs-" + suffix, random);
+        }
+        return plan;
+    }
+
+    private static void randomizeCostShares(ObjectNode costShares, String objectId, Random random) {
+        costShares.put("objectId", objectId);
+        costShares.put("copay", random.nextInt(100));
+        costShares.put("deductible", random.nextInt(5000));
+    }
+
+    private static JsonNode readResource(ObjectMapper objectMapper, String path) throws IOException {
+        try (InputStream in = IndexMappingSizeReport.class.getResourceAsStream(path)) {
+            return objectMapper.readTree(in);
+        }
+    }
+}
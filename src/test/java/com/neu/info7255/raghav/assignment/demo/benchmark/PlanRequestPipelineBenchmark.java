@@ -0,0 +1,121 @@
+package com.neu.info7255.raghav.assignment.demo.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neu.info7255.raghav.assignment.demo.model.PlanDocument;
+import com.neu.info7255.raghav.assignment.demo.services.ETagService;
+import com.neu.info7255.raghav.assignment.demo.services.EveritPlanSchemaEngine;
+import com.neu.info7255.raghav.assignment.demo.services.JsonSchemaValidatorService;
+import com.neu.info7255.raghav.assignment.demo.services.NetworkntPlanSchemaEngine;
+import org.everit.json.schema.Schema;
+import org.everit.json.schema.loader.SchemaLoader;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request cost of turning a PUT/POST body into what validation, the eTag and the indexing event need,
+ * Redis excluded. The legacy variants repeat the conversions PlanController used to make; singleParse
+ * parses a PlanDocument once and shares it.
+ * Run with the GC profiler (as main does) to see allocated bytes per request in gc.alloc.rate.norm.
+ * <p>
+ * Run with:
+ * mvn test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test
+ * -Dexec.args="-cp %classpath com.neu.info7255.raghav.assignment.demo.benchmark.PlanRequestPipelineBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlanRequestPipelineBenchmark {
+
+    private String body;
+    private ObjectMapper objectMapper;
+    private Schema legacySchema;
+    private JsonSchemaValidatorService validator;
+    private ETagService eTagService;
+    private MessageDigest legacyDigest;
+
+    @Setup
+    public void setUp() throws IOException, NoSuchAlgorithmException {
+        try (InputStream in = PlanRequestPipelineBenchmark.class.getResourceAsStream("/benchmark/plan.json")) {
+            body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        objectMapper = new ObjectMapper();
+        try (InputStream in = PlanRequestPipelineBenchmark.class.getResourceAsStream("/schema/PlanSchema.json")) {
+            legacySchema = SchemaLoader.load(new JSONObject(new JSONTokener(in)));
+        }
+        validator = new JsonSchemaValidatorService(new NetworkntPlanSchemaEngine(objectMapper), new EveritPlanSchemaEngine(objectMapper),
+                JsonSchemaValidatorService.Engine.NETWORKNT, Long.MAX_VALUE);
+        eTagService = new ETagService("SHA-256");
+        legacyDigest = MessageDigest.getInstance("SHA-256");
+    }
+
+    /**
+     * The former PUT: readTree, then two JSONObjects built from two re-serializations of the tree.
+     */
+    @Benchmark
+    public void legacyPut(Blackhole blackhole) throws IOException {
+        JsonNode requestBodyJson = objectMapper.readTree(body);
+        JSONObject requestBodyJSONObject = new JSONObject(objectMapper.writeValueAsString(requestBodyJson));
+        legacySchema.validate(requestBodyJSONObject);
+        JSONObject newPlanJson = new JSONObject(objectMapper.writeValueAsString(requestBodyJson));
+        blackhole.consume(legacyETag(newPlanJson));
+        blackhole.consume(newPlanJson.toString());
+    }
+
+    /**
+     * The former POST: one JSONObject, serialized again for the eTag and for the event.
+     */
+    @Benchmark
+    public void legacyPost(Blackhole blackhole) {
+        JSONObject jsonObjectPlan = new JSONObject(body);
+        legacySchema.validate(jsonObjectPlan);
+        blackhole.consume(legacyETag(jsonObjectPlan));
+        blackhole.consume(jsonObjectPlan.toString());
+    }
+
+    @Benchmark
+    public void singleParse(Blackhole blackhole) throws IOException {
+        PlanDocument plan = PlanDocument.parse(objectMapper, body);
+        blackhole.consume(validator.validate(plan));
+        blackhole.consume(eTagService.getETag(plan.getTree()));
+        blackhole.consume(plan.getJson());
+    }
+
+    private String legacyETag(JSONObject json) {
+        byte[] hash = legacyDigest.digest(json.toString().getBytes(StandardCharsets.UTF_8));
+        return "\"" + Base64.getEncoder().encodeToString(hash) + "\"";
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PlanRequestPipelineBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,101 @@
+package com.neu.info7255.raghav.assignment.demo.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.neu.info7255.raghav.assignment.demo.model.PlanDocument;
+import com.neu.info7255.raghav.assignment.demo.model.SchemaViolation;
+import com.neu.info7255.raghav.assignment.demo.services.EveritPlanSchemaEngine;
+import com.neu.info7255.raghav.assignment.demo.services.NetworkntPlanSchemaEngine;
+import com.neu.info7255.raghav.assignment.demo.services.PlanSchemaEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schema validation cost of both engines against plan size (number of linkedPlanServices), for valid plans
+ * and for plans where every linked service is invalid, collecting all violations or failing fast.
+ * validateFragment is what a PATCH adding one linked service pays, and stays flat as the plan grows.
+ * <p>
+ * Run with:
+ * mvn test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test
+ * -Dexec.args="-cp %classpath com.neu.info7255.raghav.assignment.demo.benchmark.SchemaValidationBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class SchemaValidationBenchmark {
+
+    @Param({"networknt", "everit"})
+    public String engine;
+
+    @Param({"1", "10", "100", "1000"})
+    public int linkedPlanServices;
+
+    @Param({"true", "false"})
+    public boolean valid;
+
+    @Param({"false", "true"})
+    public boolean failFast;
+
+    private PlanSchemaEngine schemaEngine;
+    private PlanDocument plan;
+    private JsonNode fragment;
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        schemaEngine = engine.equals("everit") ? new EveritPlanSchemaEngine(objectMapper) : new NetworkntPlanSchemaEngine(objectMapper);
+
+        ObjectNode template;
+        try (InputStream in = SchemaValidationBenchmark.class.getResourceAsStream("/benchmark/plan.json")) {
+            template = (ObjectNode) objectMapper.readTree(in);
+        }
+        ObjectNode service = (ObjectNode) template.get("linkedPlanServices").get(0);
+        ArrayNode services = template.putArray("linkedPlanServices");
+        for (int i = 0; i < linkedPlanServices; i++) {
+            ObjectNode copy = service.deepCopy();
+            copy.put("objectId", "lps-" + i);
+            if (!valid) {
+                ((ObjectNode) copy.get("planserviceCostShares")).put("copay", "not a number");
+            }
+            services.add(copy);
+        }
+        plan = PlanDocument.parse(objectMapper, template.toString());
+        fragment = services.get(0);
+    }
+
+    @Benchmark
+    public List<SchemaViolation> validate() {
+        return schemaEngine.validate(plan, failFast);
+    }
+
+    @Benchmark
+    public List<SchemaViolation> validateFragment() {
+        return schemaEngine.validateFragment("linkedPlanServices", 0, fragment, failFast);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SchemaValidationBenchmark.class.getSimpleName()).build()).run();
+    }
+}
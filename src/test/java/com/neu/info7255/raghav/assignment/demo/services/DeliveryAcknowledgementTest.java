@@ -0,0 +1,47 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import com.rabbitmq.client.Channel;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class DeliveryAcknowledgementTest {
+
+    private final Channel channel = mock(Channel.class);
+
+    @Test
+    void acksOnceSealedAndEveryRequestIsDone() throws IOException {
+        DeliveryAcknowledgement acknowledgement = new DeliveryAcknowledgement(channel, 1);
+        acknowledgement.include(new DeliveryAcknowledgement(channel, 2));
+        acknowledgement.requestSent();
+        acknowledgement.requestSent();
+
+        acknowledgement.requestDone();
+        acknowledgement.seal();
+        assertFalse(acknowledgement.isAcked());
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+
+        acknowledgement.requestDone();
+        assertTrue(acknowledgement.isAcked());
+        verify(channel).basicAck(1, false);
+        verify(channel).basicAck(2, false);
+    }
+
+    @Test
+    void messageWithoutRequestsIsAckedWhenSealed() throws IOException {
+        DeliveryAcknowledgement acknowledgement = new DeliveryAcknowledgement(channel, 7);
+
+        acknowledgement.seal();
+
+        assertTrue(acknowledgement.isAcked());
+        verify(channel).basicAck(7, false);
+    }
+}
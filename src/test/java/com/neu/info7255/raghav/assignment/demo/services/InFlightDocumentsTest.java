@@ -0,0 +1,130 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Sends two events of one plan before the first event's bulk has completed, the way IndexingListener diffs them.
+ */
+class InFlightDocumentsTest {
+
+    private final InFlightDocuments inFlight = new InFlightDocuments();
+    private final Map<String, String> hash = new HashMap<>();
+    private final Map<DocWriteRequest<?>, String> sentDigests = new HashMap<>();
+    private JSONObject plan;
+    private String planId;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        try (InputStream in = getClass().getResourceAsStream("/benchmark/plan.json")) {
+            plan = new JSONObject(new JSONTokener(in));
+        }
+        planId = plan.getString("objectId");
+        hash.putAll(PlanDocumentDiff.between(Map.of(), PlanDocumentFlattener.flatten(plan)).digests());
+    }
+
+    @Test
+    void revertedChangeIsWrittenAgain() {
+        JSONObject costShares = plan.getJSONObject("planCostShares");
+        int deductible = costShares.getInt("deductible");
+
+        costShares.put("deductible", deductible + 1);
+        List<DocWriteRequest<?>> first = send(diff());
+        costShares.put("deductible", deductible);
+        PlanDocumentDiff second = diff();
+
+        assertEquals(List.of(costShares.getString("objectId")), ids(second.changed()));
+        send(second);
+        complete(first);
+        // The first bulk is recorded in the hash; the second, still in flight, is what the index is heading to
+        assertTrue(diff().changed().isEmpty());
+    }
+
+    @Test
+    void childAddedAndRemovedIsDeleted() {
+        JSONArray services = plan.getJSONArray("linkedPlanServices");
+        JSONObject added = new JSONObject(services.getJSONObject(0).toString());
+        added.put("objectId", "in-flight-service");
+        added.getJSONObject("linkedService").put("objectId", "in-flight-linked-service");
+        added.getJSONObject("planserviceCostShares").put("objectId", "in-flight-cost-shares");
+        services.put(added);
+        send(diff());
+
+        services.remove(services.length() - 1);
+        PlanDocumentDiff second = diff();
+
+        assertTrue(second.changed().isEmpty());
+        assertEquals(Set.of("in-flight-service", "in-flight-linked-service", "in-flight-cost-shares"),
+                Set.copyOf(second.removed()));
+    }
+
+    @Test
+    void recreatedPlanIsWrittenWhileItsDeletesAreInFlight() {
+        List<DocWriteRequest<?>> deletes = new ArrayList<>();
+        for (String id : hash.keySet()) {
+            DeleteRequest delete = new DeleteRequest("indexplan_write", id).routing(planId);
+            inFlight.sent(delete, null);
+            deletes.add(delete);
+        }
+
+        assertEquals(hash.size(), diff().changed().size());
+        complete(deletes);
+        assertTrue(hash.isEmpty());
+    }
+
+    private PlanDocumentDiff diff() {
+        return PlanDocumentDiff.between(inFlight.overlay(planId, () -> hash), PlanDocumentFlattener.flatten(plan));
+    }
+
+    private List<DocWriteRequest<?>> send(PlanDocumentDiff diff) {
+        List<DocWriteRequest<?>> requests = new ArrayList<>();
+        for (String id : diff.removed()) {
+            requests.add(new DeleteRequest("indexplan_write", id).routing(planId));
+            inFlight.sent(requests.get(requests.size() - 1), null);
+        }
+        for (PlanDocumentFlattener.IndexedDocument document : diff.changed()) {
+            IndexRequest request = new IndexRequest("indexplan_write").id(document.id()).routing(document.routing());
+            request.source(document.source());
+            requests.add(request);
+            inFlight.sent(request, diff.digests().get(document.id()));
+            sentDigests.put(request, diff.digests().get(document.id()));
+        }
+        return requests;
+    }
+
+    /**
+     * Records the outcome in the hash before forgetting the request, as BulkListener does.
+     */
+    private void complete(List<DocWriteRequest<?>> requests) {
+        for (DocWriteRequest<?> request : requests) {
+            if (request.opType() == DocWriteRequest.OpType.DELETE) {
+                hash.remove(request.id());
+            } else {
+                hash.put(request.id(), sentDigests.get(request));
+            }
+            inFlight.completed(request);
+        }
+    }
+
+    private static List<String> ids(List<PlanDocumentFlattener.IndexedDocument> documents) {
+        return documents.stream().map(PlanDocumentFlattener.IndexedDocument::id).collect(Collectors.toList());
+    }
+}
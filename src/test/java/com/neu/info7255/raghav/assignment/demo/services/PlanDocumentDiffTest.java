@@ -0,0 +1,69 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import com.neu.info7255.raghav.assignment.demo.services.PlanDocumentFlattener.IndexedDocument;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlanDocumentDiffTest {
+
+    private JSONObject plan;
+    private Map<String, String> indexed;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        try (InputStream in = getClass().getResourceAsStream("/benchmark/plan.json")) {
+            plan = new JSONObject(new JSONTokener(in));
+        }
+        indexed = PlanDocumentDiff.between(Map.of(), PlanDocumentFlattener.flatten(plan)).digests();
+    }
+
+    @Test
+    void unchangedPlanWritesNothing() {
+        PlanDocumentDiff diff = PlanDocumentDiff.between(indexed, PlanDocumentFlattener.flatten(new JSONObject(plan.toString())));
+
+        assertTrue(diff.changed().isEmpty());
+        assertTrue(diff.removed().isEmpty());
+    }
+
+    @Test
+    void onlyTheEditedObjectIsWritten() {
+        JSONObject costShares = plan.getJSONObject("planCostShares");
+        costShares.put("deductible", costShares.getInt("deductible") + 1);
+
+        PlanDocumentDiff diff = PlanDocumentDiff.between(indexed, PlanDocumentFlattener.flatten(plan));
+
+        assertEquals(List.of(costShares.getString("objectId")), ids(diff.changed()));
+        assertTrue(diff.removed().isEmpty());
+    }
+
+    @Test
+    void droppedServiceDeletesItsSubtree() {
+        JSONArray services = plan.getJSONArray("linkedPlanServices");
+        JSONObject dropped = (JSONObject) services.remove(0);
+
+        PlanDocumentDiff diff = PlanDocumentDiff.between(indexed, PlanDocumentFlattener.flatten(plan));
+
+        assertTrue(diff.changed().isEmpty());
+        assertEquals(Set.of(dropped.getString("objectId"),
+                        dropped.getJSONObject("linkedService").getString("objectId"),
+                        dropped.getJSONObject("planserviceCostShares").getString("objectId")),
+                Set.copyOf(diff.removed()));
+    }
+
+    private static List<String> ids(List<IndexedDocument> documents) {
+        return documents.stream().map(IndexedDocument::id).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,91 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import com.neu.info7255.raghav.assignment.demo.services.PlanDocumentFlattener.IndexedDocument;
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.metadata.IndexMetadata;
+import org.elasticsearch.cluster.routing.IndexRouting;
+import org.elasticsearch.common.settings.Settings;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class PlanDocumentFlattenerTest {
+
+    private JSONObject plan;
+    private List<IndexedDocument> documents;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        try (InputStream in = getClass().getResourceAsStream("/benchmark/plan.json")) {
+            plan = new JSONObject(new JSONTokener(in));
+        }
+        documents = PlanDocumentFlattener.flatten(plan);
+    }
+
+    @Test
+    void everyObjectBecomesOneDocument() {
+        // plan, planCostShares, and linkedPlanService + linkedService + planserviceCostShares per service
+        int services = plan.getJSONArray("linkedPlanServices").length();
+        assertEquals(2 + 3 * services, documents.size());
+    }
+
+    @Test
+    void everyDocumentIsRoutedByTheRootPlan() {
+        String planId = plan.getString("objectId");
+        for (IndexedDocument document : documents) {
+            assertEquals(planId, document.routing(), document.id());
+        }
+    }
+
+    @Test
+    void wholePlanLandsOnOneShardOfAMultiShardIndex() {
+        // Elasticsearch's own shard calculation stands in for a multi-shard cluster
+        IndexRouting routing = IndexRouting.fromIndexMetadata(IndexMetadata.builder("indexplan_v1")
+                .settings(Settings.builder().put(IndexMetadata.SETTING_VERSION_CREATED, Version.CURRENT))
+                .numberOfShards(5)
+                .numberOfReplicas(0)
+                .build());
+
+        Map<Integer, List<String>> shards = documents.stream().collect(Collectors.groupingBy(
+                document -> routing.shardId(document.id(), document.routing()),
+                Collectors.mapping(IndexedDocument::id, Collectors.toList())));
+        assertEquals(1, shards.size(), shards.toString());
+    }
+
+    @Test
+    void joinFieldPointsToTheEnclosingObject() {
+        Map<String, IndexedDocument> byId = new HashMap<>();
+        documents.forEach(document -> byId.put(document.id(), document));
+
+        IndexedDocument root = byId.get(plan.getString("objectId"));
+        assertEquals("plan", root.source().get(PlanMappingGenerator.JOIN_FIELD));
+
+        JSONObject linkedPlanService = plan.getJSONArray("linkedPlanServices").getJSONObject(0);
+        assertJoin(byId, plan.getJSONObject("planCostShares").getString("objectId"), "planCostShares", plan.getString("objectId"));
+        assertJoin(byId, linkedPlanService.getString("objectId"), "linkedPlanServices", plan.getString("objectId"));
+        assertJoin(byId, linkedPlanService.getJSONObject("linkedService").getString("objectId"), "linkedService",
+                linkedPlanService.getString("objectId"));
+        assertJoin(byId, linkedPlanService.getJSONObject("planserviceCostShares").getString("objectId"), "planserviceCostShares",
+                linkedPlanService.getString("objectId"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void assertJoin(Map<String, IndexedDocument> byId, String objectId, String relation, String parentId) {
+        IndexedDocument document = byId.get(objectId);
+        assertNotNull(document, objectId);
+        Map<String, Object> join = (Map<String, Object>) document.source().get(PlanMappingGenerator.JOIN_FIELD);
+        assertEquals(relation, join.get("name"));
+        assertEquals(parentId, join.get("parent"));
+    }
+}
@@ -0,0 +1,75 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import com.neu.info7255.raghav.assignment.demo.model.PlanEvent;
+import com.neu.info7255.raghav.assignment.demo.services.PlanEventCoalescer.Pending;
+import com.rabbitmq.client.Channel;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class PlanEventCoalescerTest {
+
+    private final PlanEventCoalescer coalescer = new PlanEventCoalescer();
+
+    @Test
+    void keepsOnlyTheNewestRevisionOfEachPlan() {
+        assertNull(coalescer.add(new PlanEvent("SAVE", "a", 1)));
+        assertNull(coalescer.add(new PlanEvent("SAVE", "b", 1)));
+        assertEquals(new PlanEvent("SAVE", "a", 1), coalescer.add(new PlanEvent("UPDATE", "a", 3)));
+        // Arrives late, e.g. from the outbox
+        assertEquals(new PlanEvent("UPDATE", "a", 2), coalescer.add(new PlanEvent("UPDATE", "a", 2)));
+
+        List<Pending> drained = coalescer.drain();
+        assertEquals(List.of(new Pending(new PlanEvent("UPDATE", "a", 3), false),
+                new Pending(new PlanEvent("SAVE", "b", 1), false)), drained);
+        assertEquals(0, coalescer.size());
+    }
+
+    @Test
+    void deleteCancelsPendingUpserts() {
+        coalescer.add(new PlanEvent("SAVE", "a", 1));
+        coalescer.add(new PlanEvent("UPDATE", "a", 2));
+        coalescer.add(new PlanEvent("DELETE", "a", 3));
+
+        Pending pending = coalescer.drain().get(0);
+        assertEquals("DELETE", pending.event().op());
+        assertFalse(pending.deleteFirst());
+    }
+
+    @Test
+    void recreatedPlanRemovesItsOldDocumentsFirst() {
+        coalescer.add(new PlanEvent("UPDATE", "a", 2));
+        coalescer.add(new PlanEvent("DELETE", "a", 3));
+        coalescer.add(new PlanEvent("SAVE", "a", 4));
+        coalescer.add(new PlanEvent("UPDATE", "a", 5));
+
+        Pending pending = coalescer.drain().get(0);
+        assertEquals(new PlanEvent("UPDATE", "a", 5), pending.event());
+        assertTrue(pending.deleteFirst());
+    }
+
+    @Test
+    void droppedEventIsAckedWithTheKeptOne() throws IOException {
+        Channel channel = mock(Channel.class);
+        coalescer.add(new PlanEvent("SAVE", "a", 1), new DeliveryAcknowledgement(channel, 1));
+        coalescer.add(new PlanEvent("UPDATE", "a", 2), new DeliveryAcknowledgement(channel, 2));
+
+        Pending pending = coalescer.drain().get(0);
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+        pending.acknowledgement().seal();
+
+        verify(channel).basicAck(1, false);
+        verify(channel).basicAck(2, false);
+    }
+}
@@ -0,0 +1,95 @@
+package com.neu.info7255.raghav.assignment.demo.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.neu.info7255.raghav.assignment.demo.model.PlanDocument;
+import com.neu.info7255.raghav.assignment.demo.model.PlanWrite;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+@SpringBootTest
+class PlanServiceTest {
+
+    private static final String PLAN_ID = "plan-service-test-508";
+    private static final String PLAN_KEY = "plan:" + PLAN_ID;
+
+    @Autowired
+    private PlanService planService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private ObjectNode plan;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        try (InputStream in = getClass().getResourceAsStream("/benchmark/plan.json")) {
+            plan = (ObjectNode) objectMapper.readTree(in);
+        }
+        plan.put("objectId", PLAN_ID);
+        removePlan();
+    }
+
+    @AfterEach
+    void removePlan() {
+        String eTag = planService.readEtag(PLAN_KEY);
+        if (eTag != null) {
+            planService.deletePlan(PLAN_KEY, eTag);
+        }
+    }
+
+    @Test
+    void patchReplacesNestedObjectOfExistingFragment() {
+        PlanWrite saved = planService.savePlan(PlanDocument.of(plan.deepCopy()), PLAN_KEY);
+
+        ObjectNode fragment = ((ObjectNode) plan.get("linkedPlanServices").get(0)).deepCopy();
+        String oldServiceKey = "service:" + fragment.get("linkedService").get("objectId").asText();
+        ((ObjectNode) fragment.get("linkedService")).put("objectId", "plan-service-test-service");
+        ArrayNode fragments = objectMapper.createArrayNode().add(fragment);
+
+        PlanWrite patched = planService.appendToPlan(PLAN_KEY, "linkedPlanServices", fragments, saved.eTag());
+
+        Map<String, Object> stored = planService.getPlanById(PLAN_KEY);
+        Map<?, ?> service = linkedPlanService(stored, fragment.get("objectId").asText());
+        Map<?, ?> linkedService = assertInstanceOf(Map.class, service.get("linkedService"));
+        assertEquals("plan-service-test-service", linkedService.get("objectId"));
+        assertFalse(planService.ifKeyExists(oldServiceKey));
+
+        // The stored eTag covers exactly the stored graph: the same plan written whole gets the same eTag
+        ((ArrayNode) plan.get("linkedPlanServices")).set(0, fragment);
+        assertEquals(planService.savePlan(PlanDocument.of(plan), PLAN_KEY).eTag(), patched.eTag());
+    }
+
+    @Test
+    void replaceIsOneRevision() {
+        PlanWrite saved = planService.savePlan(PlanDocument.of(plan.deepCopy()), PLAN_KEY);
+
+        PlanWrite replaced = planService.replacePlan(PlanDocument.of(plan.deepCopy()), PLAN_KEY, saved.eTag());
+
+        assertEquals(saved.revision() + 1, replaced.revision());
+        assertEquals(replaced.revision(), planService.getRevision(PLAN_KEY));
+    }
+
+    private static Map<?, ?> linkedPlanService(Map<String, Object> plan, String objectId) {
+        for (Object service : (List<?>) plan.get("linkedPlanServices")) {
+            if (objectId.equals(((Map<?, ?>) service).get("objectId"))) {
+                return (Map<?, ?>) service;
+            }
+        }
+        throw new AssertionError("No linkedPlanService " + objectId);
+    }
+}